@@ -0,0 +1,70 @@
+package stone;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local HTTP server standing in for the update server. It serves the files
+ * of a directory laid out like the repository, that is moduleInfo/ and
+ * modules/. Start the program with
+ * <code>-Dstone.url=http://localhost:&lt;port&gt;/</code> to use it.
+ * <p>
+ * Usage: <code>UpdateServerStub [port] [directory] [delay in ms]</code>. The
+ * delay is added to each response to simulate a slow connection.
+ *
+ * @author Nelphindal
+ */
+public class UpdateServerStub {
+
+	/**
+	 * @param args
+	 *            port, directory to serve and delay of each response
+	 * @throws IOException
+	 *             if the server can not be started
+	 */
+	public final static void main(final String[] args) throws IOException {
+		final int port = args.length > 0 ? Integer.parseInt(args[0]) : 8000;
+		final File root = new File(args.length > 1 ? args[1] : ".");
+		final long delay = args.length > 2 ? Long.parseLong(args[2]) : 0;
+		final HttpServer server = HttpServer.create(new InetSocketAddress(
+				InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/", new HttpHandler() {
+
+			@Override
+			public final void handle(final HttpExchange exchange)
+					throws IOException {
+				try {
+					Thread.sleep(delay);
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				final String name = exchange.getRequestURI().getPath();
+				final File file = new File(root, name);
+				System.out.printf("%s %s\n", exchange.getRequestMethod(), name);
+				if (name.contains("..") || !file.isFile()) {
+					exchange.sendResponseHeaders(404, -1);
+					exchange.close();
+					return;
+				}
+				final byte[] content = Files.readAllBytes(file.toPath());
+				exchange.sendResponseHeaders(200, content.length);
+				try (final OutputStream out = exchange.getResponseBody()) {
+					out.write(content);
+				}
+			}
+		});
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.start();
+		System.out.printf("Serving %s at http://localhost:%d/\n",
+				root.getAbsolutePath(), port);
+	}
+}
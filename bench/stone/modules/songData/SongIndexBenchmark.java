@@ -0,0 +1,337 @@
+package stone.modules.songData;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import stone.StartupContainer;
+import stone.io.IOHandler;
+import stone.modules.Main;
+import stone.modules.SongData;
+import stone.util.Flag;
+import stone.util.Path;
+
+/**
+ * Benchmarks of the song index: scanning a synthetic Music directory with and
+ * without data of a previous run, reading and writing the store, building the
+ * {@link DirTree} and writing the SongbookData.plugindata.
+ * <p>
+ * Run it by <code>make bench</code>. The counter <i>songs</i> reports the
+ * throughput in songs per second, the allocation rate is reported by the gc
+ * profiler.
+ *
+ * @author Nelphindal
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class SongIndexBenchmark {
+
+	/**
+	 * Counts the songs processed per benchmark invocation
+	 */
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class Songs {
+		/** songs processed */
+		public long songs;
+	}
+
+	private static final int DIRS_PER_LEVEL = 8;
+
+	private static final String BODY_LINE = "[C,E,G,c]2 z/2 _B/2 A3/2 G/2 F3 | ";
+
+	/** number of songs to generate */
+	@Param({ "10000" })
+	public int songs;
+
+	/** maximum number of directories between the root and a song */
+	@Param({ "3" })
+	public int depth;
+
+	/** bytes of notes of each voice */
+	@Param({ "4096" })
+	public int bodyLength;
+
+	private File base;
+	private Path root;
+	private File idx;
+	private File pluginData;
+	private StartupContainer sc;
+	private IOHandler io;
+	private final List<File> files = new ArrayList<>();
+	private final Random random = new Random(0);
+	private DirTree tree;
+
+	/**
+	 * Generates the songs and the store of a first scan.
+	 *
+	 * @throws Exception
+	 *             if generating fails
+	 */
+	@Setup(Level.Trial)
+	public void generate() throws Exception {
+		this.base = Files.createTempDirectory("songIndex").toFile();
+		final File music = new File(this.base, "Music");
+		new File(this.base, "PluginData").mkdirs();
+		this.idx = new File(this.base, "PluginData/SongbookUpdateData.idx");
+		this.pluginData = new File(this.base, "SongbookData.plugindata");
+		final String path = music.getAbsolutePath();
+		this.root = Path.getPath(path.split(path.contains("\\") ? "\\\\"
+				: "/"));
+
+		this.sc = StartupContainer
+				.createInstance(new String[] { stone.Main.NO_GUI_ID });
+		this.sc.createTaskPool();
+		this.sc.createFinalIO(new IOHandler(this.sc));
+		this.io = this.sc.getIO();
+		// SongData looks for the songs in Music below the configured path
+		final Main main = new Main();
+		main.setConfigValue(Main.GLOBAL_SECTION, Main.PATH_KEY,
+				this.base.getAbsolutePath());
+		this.sc.setMain(main);
+		this.sc.finishInit(Flag.getInstance());
+
+		final StringBuilder body = new StringBuilder();
+		while (body.length() < this.bodyLength) {
+			body.append(BODY_LINE);
+			body.append("\r\n");
+		}
+		for (int i = 0; i < this.songs; ++i) {
+			File dir = music;
+			final int d = this.random.nextInt(this.depth + 1);
+			for (int j = 0; j < d; ++j) {
+				dir = new File(dir, "dir" + this.random.nextInt(DIRS_PER_LEVEL));
+			}
+			dir.mkdirs();
+			final File song = new File(dir, "song" + i + ".abc");
+			final StringBuilder content = new StringBuilder();
+			final int voices = 1 + this.random.nextInt(4);
+			for (int v = 1; v <= voices; ++v) {
+				content.append("X: " + v + "\r\n");
+				content.append("T: Song " + i + " part " + v + "/" + voices
+						+ " (" + i % 60 + ":00)\r\n");
+				content.append("M: 4/4\r\nL: 1/4\r\nQ: 120\r\nK: C\r\n");
+				content.append(body);
+				content.append("\r\n");
+			}
+			Files.write(song.toPath(), content.toString().getBytes());
+			this.files.add(song);
+		}
+		this.tree = scan();
+	}
+
+	/**
+	 * Removes the generated songs
+	 *
+	 * @throws IOException
+	 *             if deleting fails
+	 */
+	@TearDown(Level.Trial)
+	public void delete() throws IOException {
+		delete(this.base);
+	}
+
+	/**
+	 * Scans all songs without data of a previous run
+	 *
+	 * @param counter
+	 *            -
+	 * @return the filled tree
+	 * @throws Exception
+	 *             if scanning fails
+	 */
+	@Benchmark
+	public DirTree coldScan(final Songs counter) throws Exception {
+		this.idx.delete();
+		counter.songs += this.songs;
+		return scan();
+	}
+
+	/**
+	 * Scans all songs, none changed since last run
+	 *
+	 * @param counter
+	 *            -
+	 * @return the filled tree
+	 * @throws Exception
+	 *             if scanning fails
+	 */
+	@Benchmark
+	public DirTree warmRescan(final Songs counter) throws Exception {
+		counter.songs += this.songs;
+		return scan();
+	}
+
+	/**
+	 * Scans all songs, 1% of them changed since last run
+	 *
+	 * @param counter
+	 *            -
+	 * @return the filled tree
+	 * @throws Exception
+	 *             if scanning fails
+	 */
+	@Benchmark
+	public DirTree changedRescan(final Songs counter) throws Exception {
+		final long now = System.currentTimeMillis();
+		for (int i = 0; i < (this.songs / 100); ++i) {
+			final File song = this.files.get(this.random.nextInt(this.songs));
+			// a replaced file changes the directory too
+			song.setLastModified(now + i);
+			song.getParentFile().setLastModified(now + i);
+		}
+		counter.songs += this.songs;
+		return scan();
+	}
+
+	/**
+	 * Reads the store of last run
+	 *
+	 * @param counter
+	 *            -
+	 * @return the filled tree
+	 * @throws Exception
+	 *             if reading fails
+	 */
+	@Benchmark
+	public DirTree deserialize(final Songs counter) throws Exception {
+		final SongData sd = new SongData(this.sc);
+		final Deserializer sdd = Deserializer.init(sd, this.sc.getMaster());
+		final Runnable task = sdd.getDeserialTask();
+		if (task != null) {
+			runParallel(task);
+		}
+		sdd.abort();
+		counter.songs += this.songs;
+		return sd.getDirTree();
+	}
+
+	/**
+	 * Writes all songs to a new store
+	 *
+	 * @param counter
+	 *            -
+	 * @throws Exception
+	 *             if writing fails
+	 */
+	@Benchmark
+	public void serialize(final Songs counter) throws Exception {
+		final SongData sd = new SongData(this.sc);
+		final Deserializer sdd = Deserializer.init(sd, this.sc.getMaster());
+		final java.util.Iterator<Path> iter = this.tree.filesIterator();
+		while (iter.hasNext()) {
+			sdd.serialize(this.tree.get(iter.next()));
+		}
+		sdd.finish();
+		counter.songs += this.songs;
+	}
+
+	/**
+	 * Puts all songs into a new {@link DirTree}
+	 *
+	 * @param counter
+	 *            -
+	 * @return the filled tree
+	 */
+	@Benchmark
+	public DirTree buildDirTree(final Songs counter) {
+		final DirTree t = new DirTree(this.root);
+		final java.util.Iterator<Path> iter = this.tree.filesIterator();
+		while (iter.hasNext()) {
+			t.put(this.tree.get(iter.next()));
+		}
+		counter.songs += this.songs;
+		return t;
+	}
+
+	/**
+	 * Writes the SongbookData.plugindata
+	 *
+	 * @param counter
+	 *            -
+	 */
+	@Benchmark
+	public void pluginData(final Songs counter) {
+		new PluginDataWriter(this.tree, this.io).write(this.pluginData);
+		counter.songs += this.songs;
+	}
+
+	private final static void delete(final File file) throws IOException {
+		final File[] children = file.listFiles();
+		if (children != null) {
+			for (final File child : children) {
+				delete(child);
+			}
+		}
+		Files.deleteIfExists(file.toPath());
+	}
+
+	private final static void runParallel(final Runnable task)
+			throws InterruptedException {
+		final Thread[] threads = new Thread[Runtime.getRuntime()
+				.availableProcessors()];
+		for (int i = 0; i < threads.length; ++i) {
+			threads[i] = new Thread(task);
+			threads[i].start();
+		}
+		for (final Thread t : threads) {
+			t.join();
+		}
+	}
+
+	/**
+	 * Does the same as {@link SongData#fill()} without a running
+	 * {@link stone.util.TaskPool}.
+	 */
+	private final DirTree scan() throws Exception {
+		final SongData sd = new SongData(this.sc);
+		final Deserializer sdd = Deserializer.init(sd, this.sc.getMaster());
+		final Runnable taskDeserial = sdd.getDeserialTask();
+		final Crawler crawler = new Crawler(sdd);
+		final Scanner scanner = new Scanner(this.sc.getMaster(), sdd,
+				sd.getDirTree(), 0);
+		final List<Thread> threads = new ArrayList<>();
+		if (taskDeserial == null) {
+			sdd.deserialize();
+		} else {
+			for (int i = 0; i < Runtime.getRuntime().availableProcessors(); ++i) {
+				threads.add(new Thread(taskDeserial));
+			}
+		}
+		threads.add(new Thread(crawler));
+		for (int i = 0; i < (2 * Runtime.getRuntime().availableProcessors()); ++i) {
+			threads.add(new Thread(scanner));
+		}
+		for (final Thread t : threads) {
+			t.start();
+		}
+		for (final Thread t : threads) {
+			t.join();
+		}
+		sdd.finish();
+		return sd.getDirTree();
+	}
+}
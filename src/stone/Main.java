@@ -61,6 +61,11 @@ public class Main {
 		}
 		final Object sc = scClass.getMethod("createInstance", String[].class)
 				.invoke(null, (Object) params);
+		if (((Boolean) flagClass.getMethod("isEnabled", String.class).invoke(
+				flags, DEBUG_ID)).booleanValue()) {
+			// the first window is visible now
+			loader.printStatistics(no_gui ? "Started" : "Window shown");
+		}
 		final Object main = mainClass.newInstance();
 		// final String flagId, final String tooltip,
 		// char shortFlag, final String longFlag, boolean argExpected
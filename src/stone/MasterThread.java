@@ -21,6 +21,11 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
@@ -35,6 +40,7 @@ import stone.util.Option;
 import stone.util.Path;
 import stone.util.StringOption;
 import stone.util.TaskPool;
+import stone.util.TaskPool.TaskGroup;
 
 
 /**
@@ -44,7 +50,14 @@ public class MasterThread extends Thread {
 
 	private static final Config c = Config.getInstance();
 
-	private static final String downloadPage = c.getValue("url");
+	/**
+	 * Name of the system property to replace the url of the update server,
+	 * for example by a local stub for testing.
+	 */
+	public static final String URL_PROPERTY = "stone.url";
+
+	private static final String downloadPage = System.getProperty(
+			URL_PROPERTY, c.getValue("url"));
 
 	/**
 	 * Checks the interrupt state of current thread. In the case the current
@@ -113,6 +126,8 @@ public class MasterThread extends Thread {
 
 	private final List<String> possibleModules = new ArrayList<>();
 
+	private final Map<String, Future<Integer>> remoteVersions = new ConcurrentHashMap<>();
+
 	private final TaskPool taskPool;
 
 	private final UncaughtExceptionHandler exceptionHandler;
@@ -121,7 +136,7 @@ public class MasterThread extends Thread {
 
 	private IOHandler io;
 
-	private boolean suppressUnknownHost;
+	private final AtomicBoolean suppressUnknownHost = new AtomicBoolean();
 
 	private Path wd;
 
@@ -252,6 +267,11 @@ public class MasterThread extends Thread {
 	/**
 	 * - Finishes startup - Sets the base if not happened before. - Asks the
 	 * user which modules to use, launches selected ones - Destroys this process
+	 * <p>
+	 * The checks for updates, the check of installed java and loading the
+	 * classes of the modules run concurrently while waiting for the config to
+	 * be parsed. The versions of all modules are requested before the user
+	 * selects any of them.
 	 */
 	@Override
 	public void run() {
@@ -259,24 +279,59 @@ public class MasterThread extends Thread {
 		this.wd = this.sc.workingDirectory;
 		ModuleInfo.init(c, this.sc);
 		final ModuleInfo mainModule = new ModuleInfo();
+		this.possibleModules.addAll(c.getSection("modules"));
+
+		final long start = System.nanoTime();
+		final TaskGroup startup = this.taskPool.createIOGroup();
+		this.io.startProgress("Starting up", 4);
+		requestVersion(startup, mainModule.name);
+		final Future<Void> jre = startPhase(startup, "java check",
+				new Callable<Void>() {
+
+					@Override
+					public final Void call() {
+						try {
+							MasterThread.this.io.checkJRE();
+						} catch (final Exception e) {
+							e.printStackTrace();
+						}
+						return null;
+					}
+				});
+		final Future<Map<String, Class<Module>>> classes = startPhase(startup,
+				"module loading", new Callable<Map<String, Class<Module>>>() {
+
+					@Override
+					public final Map<String, Class<Module>> call() {
+						final Map<String, Class<Module>> map = new HashMap<>();
+						for (final String m : MasterThread.this.possibleModules) {
+							map.put(m, StartupContainer.loadModule(m));
+						}
+						return map;
+					}
+				});
+		for (final String module : this.possibleModules) {
+			requestVersion(startup, module);
+		}
 
-		this.io.startProgress("Checking core for updates", -1);
 		if (checkModule(mainModule)) {
 			this.io.endProgress("Updating core");
 			downloadModule(mainModule.name);
 			die(repack());
 			return;
 		}
-
-		this.io.endProgress("");
-		this.io.startProgress("Checking installed java", -1);
-		try {
-			this.io.checkJRE();
-		} catch (final Exception e) {
-			e.printStackTrace();
-		}
-		this.io.endProgress("Waiting for initialization");
+		this.io.updateProgress();
+		join(jre);
+		this.io.updateProgress();
+		final long startInit = System.nanoTime();
 		this.sc.waitForInit();
+		Debug.print("Startup phase %s took %d ms\n", "config",
+				(System.nanoTime() - startInit) / 1000000);
+		this.io.updateProgress();
+		final Map<String, Class<Module>> moduleClasses = join(classes);
+		this.io.endProgress("");
+		Debug.print("Startup took %d ms\n",
+				(System.nanoTime() - start) / 1000000);
 		synchronized (this) {
 			if (this.parseError != null) {
 				((stone.modules.Main) mainModule.instance).flushConfig();
@@ -305,7 +360,7 @@ public class MasterThread extends Thread {
 		try {
 			final StringOption NAME_OPTION = Main.createNameOption(this.sc
 					.getOptionContainer());
-			final List<String> moduleSelection = init();
+			final List<String> moduleSelection = init(moduleClasses);
 			if (moduleSelection == null) {
 				return;
 			}
@@ -410,8 +465,22 @@ public class MasterThread extends Thread {
 	}
 
 	private final boolean checkModule(final ModuleInfo info) {
+		final Future<Integer> requested = this.remoteVersions.get(info.name);
+		final Integer version = requested == null ? null : join(requested);
+		final int versionNew = version == null ? fetchVersion(info.name)
+				: version.intValue();
+		Debug.print("%s %2d %2d\n", info.name, info.getVersion(), versionNew);
+		return versionNew > info.getVersion();
+	}
+
+	/**
+	 * Asks the update server for the latest version of given module.
+	 * 
+	 * @return the version or -1 if the version could not be read
+	 */
+	private final int fetchVersion(final String name) {
 		try {
-			final URL url = new URL(downloadPage + "moduleInfo/" + info.name);
+			final URL url = new URL(downloadPage + "moduleInfo/" + name);
 			final URLConnection connection = url.openConnection();
 			connection.connect();
 			final InputStream in = connection.getInputStream();
@@ -419,33 +488,28 @@ public class MasterThread extends Thread {
 			final int versionRead = in.read(bytes);
 			in.close();
 			if (versionRead < 0) {
-				return false;
+				return -1;
 			}
-			final int versionNew = ByteBuffer.wrap(bytes).getInt();
-			Debug.print("%s %2d %2d\n", info.name, info.getVersion(),
-					versionNew);
-			return versionNew > info.getVersion();
+			return ByteBuffer.wrap(bytes).getInt();
 		} catch (final FileNotFoundException e) {
 			this.io.printError("Github does not track version of module\n"
-					+ info.name + "\n", false);
+					+ name + "\n", false);
 		} catch (final IOException e) {
 			if (e.getClass() == java.net.UnknownHostException.class) {
-				if (this.suppressUnknownHost) {
-					return false;
+				if (!this.suppressUnknownHost.compareAndSet(false, true)) {
+					return -1;
 				}
 				System.err.println("connection to " + e.getMessage()
 						+ " failed");
-				this.suppressUnknownHost = true;
 			} else {
 				e.printStackTrace();
 			}
 			this.io.printError("Failed to contact github to check if module\n"
-					+ info.name + "\n is up to date", false);
+					+ name + "\n is up to date", false);
 		} catch (final Exception e) {
 			e.printStackTrace();
-			return false;
 		}
-		return false;
+		return -1;
 	}
 
 	private final void deleteTmp() {
@@ -581,10 +645,10 @@ public class MasterThread extends Thread {
 		this.event = null;
 	}
 
-	private final List<String> init() {
-		this.possibleModules.addAll(c.getSection("modules"));
+	private final List<String> init(
+			final Map<String, Class<Module>> moduleClasses) {
 		try {
-			loadModules();
+			loadModules(moduleClasses);
 		} catch (final Exception e) {
 			this.io.handleException(ExceptionHandle.TERMINATE, e);
 			return null;
@@ -665,14 +729,35 @@ public class MasterThread extends Thread {
 		return modules;
 	}
 
-	private final void loadModules() {
+	/**
+	 * Waits for given phase of startup.
+	 * 
+	 * @return the result or <i>null</i> if the phase failed or waiting has
+	 *         been interrupted
+	 */
+	private final <T> T join(final Future<T> phase) {
+		try {
+			return phase.get();
+		} catch (final InterruptedException e) {
+			interrupt();
+		} catch (final ExecutionException e) {
+			// already printed by the executing task
+		}
+		return null;
+	}
+
+	private final void loadModules(
+			final Map<String, Class<Module>> moduleClasses) {
 		this.io.startProgress("Searching for and loading modules",
 				this.possibleModules.size());
 		for (final String module : this.possibleModules) {
 			if (isInterrupted()) {
 				return;
 			}
-			final Class<Module> clazz = StartupContainer.loadModule(module);
+			final Class<Module> loaded = moduleClasses == null ? null
+					: moduleClasses.get(module);
+			final Class<Module> clazz = loaded == null ? StartupContainer
+					.loadModule(module) : loaded;
 			this.modulesLocal.put(module, new ModuleInfo(clazz, module));
 			this.io.updateProgress();
 		}
@@ -732,6 +817,20 @@ public class MasterThread extends Thread {
 		this.taskPool.waitForTasks();
 	}
 
+	/**
+	 * Requests the latest version of given module by its own thread.
+	 */
+	private final void requestVersion(final TaskGroup group, final String name) {
+		this.remoteVersions.put(name, startPhase(group, "version check of "
+				+ name, new Callable<Integer>() {
+
+			@Override
+			public final Integer call() {
+				return Integer.valueOf(fetchVersion(name));
+			}
+		}));
+	}
+
 	private final void runModule(final String module) {
 		if (isInterrupted()) {
 			return;
@@ -740,6 +839,26 @@ public class MasterThread extends Thread {
 		m.run();
 	}
 
+	/**
+	 * Starts one phase of startup, the time needed is printed for debugging.
+	 */
+	private final <T> Future<T> startPhase(final TaskGroup group,
+			final String name, final Callable<T> phase) {
+		return group.submit(new Callable<T>() {
+
+			@Override
+			public final T call() throws Exception {
+				final long start = System.nanoTime();
+				try {
+					return phase.call();
+				} finally {
+					Debug.print("Startup phase %s took %d ms\n", name,
+							(System.nanoTime() - start) / 1000000);
+				}
+			}
+		});
+	}
+
 	private final void unpack(final Path target) {
 		try {
 			final JarFile jar = new JarFile(target.toFile());
@@ -1,14 +1,24 @@
 package stone;
 
 import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.zip.ZipEntry;
 
@@ -19,6 +29,10 @@ import stone.util.Path;
 
 /**
  * A central object holding every object needed for initialization
+ * <p>
+ * Each archive is opened once and its entries are indexed, later lookups of
+ * classes and resources are a single hash lookup. The loader is parallel
+ * capable, classes are defined under a lock per class name.
  * 
  * @author Nelphindal
  */
@@ -59,6 +73,28 @@ public class ModuleLoader extends ClassLoader {
 		}
 	}
 
+	/**
+	 * A directory or an opened archive to load classes and resources from.
+	 */
+	private final static class Source {
+
+		final Path path;
+		final JarFile jarFile;
+		final int rank;
+
+		Source(@SuppressWarnings("hiding") final Path path,
+				@SuppressWarnings("hiding") final JarFile jarFile,
+				@SuppressWarnings("hiding") final int rank) {
+			this.path = path;
+			this.jarFile = jarFile;
+			this.rank = rank;
+		}
+	}
+
+	static {
+		ClassLoader.registerAsParallelCapable();
+	}
+
 	private static ModuleLoader instance;
 
 	static final ModuleLoader createLoader() {
@@ -66,17 +102,31 @@ public class ModuleLoader extends ClassLoader {
 		return ModuleLoader.instance;
 	}
 
+	private final long created = System.nanoTime();
+
 	private final boolean jar;
 	private final Path workingDirectory;
 
-	private final Map<String, Class<?>> map = new HashMap<>();
-
 	private final Path[] cp;
 
-	private byte[] buffer = new byte[0xc000];
-
 	private final Path modulePath;
 
+	/** all sources in order of precedence */
+	private final List<Source> sources = new ArrayList<>();
+
+	/** directories of {@link #sources}, they can not be indexed */
+	private final List<Source> dirs = new ArrayList<>();
+
+	/** maps each entry name to the first archive of {@link #sources} */
+	private final ConcurrentHashMap<String, Source> index = new ConcurrentHashMap<>();
+
+	/** archives within {@link #modulePath} already indexed */
+	private final Set<String> indexedModules = new HashSet<>();
+
+	private final AtomicInteger classesLoaded = new AtomicInteger();
+	private final AtomicLong classesNanos = new AtomicLong();
+	private long indexNanos;
+
 	private ModuleLoader() {
 		super(null);
 		final String className = this.getClass().getCanonicalName()
@@ -110,12 +160,22 @@ public class ModuleLoader extends ClassLoader {
 			}
 		}
 		this.modulePath = StartupContainer.getDatadirectory();
+
+		final long start = System.nanoTime();
+		for (final Path path : this.cp) {
+			addSource(path);
+		}
+		indexModules();
+		this.indexNanos = System.nanoTime() - start;
 	}
 
 	/** */
 	@Override
 	public final URL getResource(final String s) {
-		final Lookup l = find(s.split("/"), null);
+		final Lookup l = find(s, false);
+		if (l == null) {
+			return null;
+		}
 		try {
 			if (l.jarFile != null) {
 
@@ -134,7 +194,7 @@ public class ModuleLoader extends ClassLoader {
 	/** */
 	@Override
 	public final InputStream getResourceAsStream(final String s) {
-		final Lookup l = find(s.split("/"), null);
+		final Lookup l = find(s, true);
 		return l == null ? null : l.in;
 	}
 
@@ -146,6 +206,84 @@ public class ModuleLoader extends ClassLoader {
 		return this.workingDirectory;
 	}
 
+	/**
+	 * Prints the time passed since creation of <i>this</i> loader, the number
+	 * of loaded classes and the time spent on indexing and loading them.
+	 * 
+	 * @param event
+	 *            name of the event the statistics are printed for
+	 */
+	public final synchronized void printStatistics(final String event) {
+		final Object[] args = { event,
+				(System.nanoTime() - this.created) / 1000000,
+				this.classesLoaded.get(), this.classesNanos.get() / 1000000,
+				this.sources.size(), this.indexNanos / 1000000 };
+		// Debug has to be loaded by this loader to see the parsed flags
+		try {
+			loadClass("stone.util.Debug").getMethod("print", String.class,
+					Object[].class).invoke(null,
+					"%s after %d ms: %d classes loaded in %d ms, %d sources indexed in %d ms\n",
+					args);
+		} catch (final ReflectiveOperationException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Replaces an archive within the module path by given archive. The old
+	 * archive is closed and its entries are dropped from the index before it
+	 * is replaced, then the new archive is indexed. Classes already loaded
+	 * from the old archive are kept.
+	 * 
+	 * @param archive
+	 *            the downloaded archive
+	 * @param name
+	 *            file name of the archive to replace
+	 * @return <i>true</i> if the archive has been replaced
+	 */
+	public final synchronized boolean replaceModule(final File archive,
+			final String name) {
+		final Path target = this.modulePath.resolve(name);
+		for (final Iterator<Source> iter = this.sources.iterator(); iter
+				.hasNext();) {
+			final Source source = iter.next();
+			if ((source.jarFile == null) || !source.path.equals(target)) {
+				continue;
+			}
+			iter.remove();
+			try {
+				source.jarFile.close();
+			} catch (final IOException e) {
+				e.printStackTrace();
+			}
+			final Iterator<Map.Entry<String, Source>> entries = this.index
+					.entrySet().iterator();
+			while (entries.hasNext()) {
+				if (entries.next().getValue() == source) {
+					entries.remove();
+				}
+			}
+			// entries hidden by the old archive
+			for (final Source other : this.sources) {
+				if ((other.jarFile != null) && (other.rank > source.rank)) {
+					final Enumeration<JarEntry> otherEntries = other.jarFile
+							.entries();
+					while (otherEntries.hasMoreElements()) {
+						this.index.putIfAbsent(otherEntries.nextElement()
+								.getName(), other);
+					}
+				}
+			}
+		}
+		final boolean replaced = Path.getPath(
+				archive.getAbsolutePath().split(
+						"\\" + FileSystem.getFileSeparator())).renameTo(
+				target);
+		this.indexedModules.add(name);
+		addSource(target);
+		return replaced;
+	}
+
 	/**
 	 * @return true if {@link #getWorkingDir()} returns the path of an
 	 *         jar-archive, false otherwise
@@ -154,132 +292,137 @@ public class ModuleLoader extends ClassLoader {
 		return this.jar;
 	}
 
-	private final Lookup find(final Path path, final String entryName) {
-		final java.io.InputStream in;
+	private final void addSource(final Path path) {
+		if ((path == null) || !path.exists()) {
+			return;
+		}
+		// ranks are kept when a module is replaced
+		final int rank = this.sources.isEmpty() ? 0 : this.sources.get(
+				this.sources.size() - 1).rank + 1;
+		if (!path.getFilename().endsWith(".jar")) {
+			final Source source = new Source(path, null, rank);
+			this.sources.add(source);
+			this.dirs.add(source);
+			return;
+		}
 		final JarFile jarFile;
-		final ZipEntry entry;
-		final int size;
-
-		if (!path.exists()) {
-			return null;
+		try {
+			jarFile = new JarFile(path.toFile());
+		} catch (final IOException e) {
+			e.printStackTrace();
+			return;
 		}
-		if (path.getFilename().endsWith(".jar")) {
-			try {
-				jarFile = new JarFile(path.toFile());
-				entry = jarFile.getEntry(entryName);
-				if (entry == null) {
-					jarFile.close();
+		final Source source = new Source(path, jarFile, rank);
+		this.sources.add(source);
+		final Enumeration<JarEntry> entries = jarFile.entries();
+		while (entries.hasMoreElements()) {
+			this.index.putIfAbsent(entries.nextElement().getName(), source);
+		}
+	}
+
+	private final Lookup find(final String entryName, boolean open) {
+		final Source indexed = this.index.get(entryName);
+		final int rank = indexed == null ? Integer.MAX_VALUE : indexed.rank;
+
+		// directories preceding the archive
+		for (final Source dir : this.dirs) {
+			if (dir.rank > rank) {
+				break;
+			}
+			final Path classPath = dir.path.resolve(entryName);
+			final File file = classPath.toFile();
+			if (!file.isFile()) {
+				continue;
+			}
+			InputStream in = null;
+			if (open) {
+				try {
+					in = new java.io.FileInputStream(file);
+				} catch (final FileNotFoundException e) {
+					e.printStackTrace();
 					return null;
 				}
-				size = (int) entry.getSize();
-				in = new BufferedInputStream(jarFile.getInputStream(entry));
-			} catch (final Exception e) {
-				e.printStackTrace();
-				return null;
-			}
-		} else {
-			final Path classPath = path.resolve(entryName);
-			if (!classPath.exists()) {
-				return null;
 			}
-			size = (int) classPath.toFile().length();
-			jarFile = null;
-			entry = null;
+			return new Lookup((int) file.length(), in, classPath);
+		}
+		if (indexed == null) {
+			return null;
+		}
+		final ZipEntry entry = indexed.jarFile.getEntry(entryName);
+		InputStream in = null;
+		if (open) {
 			try {
-				in = new java.io.FileInputStream(classPath.toFile());
-			} catch (final FileNotFoundException e) {
+				in = new BufferedInputStream(
+						indexed.jarFile.getInputStream(entry));
+			} catch (final IOException e) {
 				e.printStackTrace();
 				return null;
 			}
 		}
-		return jarFile == null ? new Lookup(size, in, path.resolve(entryName))
-				: new Lookup(size, in, path, jarFile, entry);
+		return new Lookup((int) entry.getSize(), in, indexed.path,
+				indexed.jarFile, entry);
 	}
 
-	private final Lookup find(final String[] names, final String suffix) {
-		String entryName = null;
-		for (final String s : names) {
-			if (entryName == null) {
-				entryName = s;
-			} else {
-				entryName += "/";
-				entryName += s;
-			}
-
+	/**
+	 * Indexes all archives within the module path not indexed yet.
+	 */
+	private final synchronized void indexModules() {
+		if (!this.modulePath.exists()) {
+			return;
 		}
-		if (suffix != null) {
-			entryName += suffix;
+		final String[] files = this.modulePath.toFile().list();
+		if (files == null) {
+			return;
 		}
-
-		// look at cp-path(s)
-		for (int i = 0; i < this.cp.length; i++) {
-			final Lookup l = find(this.cp[i], entryName);
-			if (l != null) {
-				return l;
+		for (final String file : files) {
+			if (file.endsWith(".jar") && this.indexedModules.add(file)) {
+				addSource(this.modulePath.resolve(file));
 			}
 		}
-
-		// look into archives
-		if (this.modulePath.exists()) {
-			for (final String file : this.modulePath.toFile().list()) {
-				if (file.endsWith(".jar")) {
-					final Path moduleArchive = this.modulePath.resolve(file);
-					final Lookup l = find(moduleArchive, entryName);
-					if (l != null) {
-						return l;
-					}
-				}
-			}
-		}
-		return null;
 	}
 
 	@Override
 	protected Class<?> findClass(final String name)
 			throws ClassNotFoundException {
+		final long start = System.nanoTime();
 		final java.io.InputStream in;
 		final int size;
-		final JarFile jarFile;
 
 		assert this.cp.length >= 1;
 
-		final Lookup found = find(name.split("\\."), ".class");
+		final Lookup found = find(name.replace('.', '/') + ".class", true);
 		if (found == null) {
-			return null;
+			throw new ClassNotFoundException(name);
 		}
 
 		in = found.in;
 		size = found.size;
-		jarFile = found.jarFile;
 
 		assert in != null;
-		if (this.buffer.length < size) {
-			this.buffer = new byte[(size & 0xffff_ff00) + 0x100];
-		}
+		final byte[] buffer = new byte[size];
 		try {
-			int offset = in.read(this.buffer);
+			int offset = 0;
 			while (offset < size) {
-				offset += in.read(this.buffer, offset, size - offset);
+				final int read = in.read(buffer, offset, size - offset);
+				if (read < 0) {
+					throw new IOException("Unexpected end of " + name);
+				}
+				offset += read;
 			}
 		} catch (final IOException e) {
 			e.printStackTrace();
 			System.out.printf("findClass(%s)\n", name);
 			return null;
-		}
-		try {
-			in.close();
-		} catch (final IOException e) {
-			e.printStackTrace();
-		}
-		if (jarFile != null) {
+		} finally {
 			try {
-				jarFile.close();
+				in.close();
 			} catch (final IOException e) {
 				e.printStackTrace();
 			}
 		}
-		final Class<?> c = defineClass(name, this.buffer, 0, size);
-		this.map.put(name, c);
+		final Class<?> c = defineClass(name, buffer, 0, size);
+		this.classesLoaded.incrementAndGet();
+		this.classesNanos.addAndGet(System.nanoTime() - start);
 		return c;
 
 	}
@@ -101,7 +101,8 @@ public class StartupContainer {
 			FileSystem.type == FileSystem.OSType.UNIX ? ".SToNe" : "SToNe");
 
 	/**
-	 * Informs the module manager about downloaded archive.
+	 * Informs the module manager about downloaded archive, which replaces the
+	 * archive of the module within the data directory.
 	 * 
 	 * @param downloadedArchive
 	 *            {@link Path} of downloaded archive
@@ -114,7 +115,21 @@ public class StartupContainer {
 			registerDownloadedModule(downloadedArchive, "SToNe");
 		} else {
 			final Path target = dataDirectory.resolve(moduleName + ".jar");
-			downloadedArchive.renameTo(target);
+			try {
+				// the loader has to close the archive it is replacing
+				StartupContainer.loader
+						.getClass()
+						.getMethod("replaceModule", java.io.File.class,
+								String.class)
+						.invoke(StartupContainer.loader,
+								downloadedArchive.toFile(),
+								target.getFilename());
+			} catch (final NoSuchMethodException e) {
+				// not loaded by the ModuleLoader
+				downloadedArchive.renameTo(target);
+			} catch (final Exception e) {
+				e.printStackTrace();
+			}
 		}
 	}
 
@@ -9,7 +9,6 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.lang.ref.WeakReference;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
@@ -59,7 +58,7 @@ public class IOHandler {
 		}
 	}
 
-	private final HashSet<WeakReference<Closeable>> openStreams;
+	private final StreamRegistry openStreams;
 
 	private final ProgressMonitor progressMonitor;
 
@@ -129,7 +128,7 @@ public class IOHandler {
 		this.gui = proxy.getProxyInstance();
 
 		this.progressMonitor = new ProgressMonitor(this.gui);
-		this.openStreams = new HashSet<>();
+		this.openStreams = new StreamRegistry();
 		this.logStack = new ArrayDeque<>();
 	}
 
@@ -173,13 +172,9 @@ public class IOHandler {
 
 			try {
 				out = new OutputStream(fileToAppendTo, FileSystem.UTF8, true);
-				synchronized (this) {
-					this.openStreams.add(new WeakReference<Closeable>(out));
-				}
+				this.openStreams.register(out);
 				in = new InputStream(content, FileSystem.UTF8);
-				synchronized (this) {
-					this.openStreams.add(new WeakReference<Closeable>(in));
-				}
+				this.openStreams.register(in);
 			} catch (final FileNotFoundException e) {
 				handleException(ExceptionHandle.TERMINATE, e);
 				return;
@@ -271,17 +266,15 @@ public class IOHandler {
 				}
 			}
 			this.closed = true;
-			for (final WeakReference<Closeable> c : this.openStreams) {
-				final Closeable cla = c.get();
-				if (cla != null) {
-					try {
-						cla.close();
-					} catch (final IOException e) {
-						handleException(ExceptionHandle.SUPPRESS, e);
-					}
+			for (final Closeable c : this.openStreams.drain()) {
+				try {
+					c.close();
+				} catch (final IOException e) {
+					handleException(ExceptionHandle.SUPPRESS, e);
 				}
 			}
-			this.openStreams.clear();
+			Debug.print("Streams: %d leaked, at most %d open at once\n",
+					this.openStreams.leaked(), this.openStreams.peak());
 		}
 		if (!this.logStack.isEmpty()) {
 			final StringBuilder sb = new StringBuilder();
@@ -304,21 +297,12 @@ public class IOHandler {
 	 * @param c
 	 *            object to close
 	 */
-	public final synchronized void close(final Closeable c) {
-		final Set<WeakReference<Closeable>> openStreamsDel = new HashSet<>();
-		for (final WeakReference<Closeable> w : this.openStreams) {
-			if (w.get() == null) {
-				openStreamsDel.add(w);
-			} else if (w.get() == c) {
-				openStreamsDel.add(w);
-				try {
-					c.close();
-				} catch (final IOException e) {
-					handleException(ExceptionHandle.SUPPRESS, e);
-				}
-			}
+	public final void close(final Closeable c) {
+		try {
+			this.openStreams.close(c);
+		} catch (final IOException e) {
+			handleException(ExceptionHandle.SUPPRESS, e);
 		}
-		this.openStreams.removeAll(openStreamsDel);
 	}
 
 	/**
@@ -399,6 +383,30 @@ public class IOHandler {
 		return this.progressMonitor;
 	}
 
+	/**
+	 * @return number of streams opened by <i>this</i> handler and collected by
+	 *         the garbage collector without being closed
+	 */
+	public final int getLeakedStreams() {
+		return this.openStreams.leaked();
+	}
+
+	/**
+	 * @return number of streams opened by <i>this</i> handler and not closed
+	 *         yet
+	 */
+	public final int getOpenStreams() {
+		return this.openStreams.open();
+	}
+
+	/**
+	 * @return maximum number of streams opened by <i>this</i> handler being
+	 *         open at the same time
+	 */
+	public final int getPeakStreams() {
+		return this.openStreams.peak();
+	}
+
 	/**
 	 * Process given exception in specified manner.
 	 * 
@@ -473,10 +481,9 @@ public class IOHandler {
 	 *            charset to use for encoding
 	 * @return the opened stream or <i>null</i> if an error occured
 	 */
-	public final synchronized InputStream openIn(final File file,
-			final Charset cs) {
+	public final InputStream openIn(final File file, final Charset cs) {
 		final InputStream stream = new InputStream(file, cs);
-		this.openStreams.add(new WeakReference<Closeable>(stream));
+		this.openStreams.register(stream);
 		return stream;
 	}
 
@@ -506,17 +513,15 @@ public class IOHandler {
 		}
 
 		final Enumeration<? extends ZipEntry> entries = zip.entries();
-		synchronized (this) {
-			while (entries.hasMoreElements()) {
-				final ZipEntry e = entries.nextElement();
+		while (entries.hasMoreElements()) {
+			final ZipEntry e = entries.nextElement();
 
-				try {
-					final AbstractInputStream in = new ZippedInputStream(zip, e);
-					this.openStreams.add(new WeakReference<Closeable>(in));
-					map.put(e.getName(), in);
-				} catch (final IOException ioe) {
-					Debug.print("%s\n", ioe.getMessage());
-				}
+			try {
+				final AbstractInputStream in = new ZippedInputStream(zip, e);
+				this.openStreams.register(in);
+				map.put(e.getName(), in);
+			} catch (final IOException ioe) {
+				Debug.print("%s\n", ioe.getMessage());
 			}
 		}
 		try {
@@ -527,6 +532,56 @@ public class IOHandler {
 		return map;
 	}
 
+	/**
+	 * Opens a new memory-mapped stream associated to given file using UTF-8
+	 * as default encoding for reading
+	 *
+	 * @param file
+	 *            {@link File} to read from
+	 * @return the opened stream
+	 * @see MappedInputStream
+	 */
+	public final MappedInputStream openMapped(final File file) {
+		return openMapped(file, FileSystem.UTF8);
+	}
+
+	/**
+	 * Opens a new memory-mapped stream associated to given charset as
+	 * encoding for reading
+	 *
+	 * @param file
+	 *            {@link File} to read from
+	 * @param cs
+	 *            charset to use for encoding
+	 * @return the opened stream
+	 * @see MappedInputStream
+	 */
+	public final MappedInputStream openMapped(final File file,
+			final Charset cs) {
+		return openMapped(file, cs, true);
+	}
+
+	/**
+	 * Opens a new stream associated to given charset as encoding for reading,
+	 * which maps given file only if <i>map</i> is set. Files to replace
+	 * should not be mapped.
+	 *
+	 * @param file
+	 *            {@link File} to read from
+	 * @param cs
+	 *            charset to use for encoding
+	 * @param map
+	 *            <i>false</i> to read the file into the heap at once
+	 * @return the opened stream
+	 * @see MappedInputStream
+	 */
+	public final MappedInputStream openMapped(final File file,
+			final Charset cs, boolean map) {
+		final MappedInputStream stream = new MappedInputStream(file, cs, map);
+		this.openStreams.register(stream);
+		return stream;
+	}
+
 	/**
 	 * Opens a new stream associated to given file using UTF-8 as default
 	 * encoding for writing
@@ -535,10 +590,10 @@ public class IOHandler {
 	 *            {@link File} to write into
 	 * @return the opened stream or <i>null</i> if an error occurred
 	 */
-	public final synchronized OutputStream openOut(final File file) {
+	public final OutputStream openOut(final File file) {
 		try {
 			final OutputStream stream = new OutputStream(file, FileSystem.UTF8);
-			this.openStreams.add(new WeakReference<Closeable>(stream));
+			this.openStreams.register(stream);
 			return stream;
 		} catch (final IOException e) {
 			handleException(ExceptionHandle.TERMINATE, e);
@@ -556,11 +611,10 @@ public class IOHandler {
 	 *            charset to use for encoding
 	 * @return the opened stream or <i>null</i> if an error occurred
 	 */
-	public final synchronized OutputStream openOut(final File file,
-			final Charset cs) {
+	public final OutputStream openOut(final File file, final Charset cs) {
 		try {
 			final OutputStream stream = new OutputStream(file, cs);
-			this.openStreams.add(new WeakReference<Closeable>(stream));
+			this.openStreams.register(stream);
 			return stream;
 		} catch (final IOException e) {
 			handleException(ExceptionHandle.TERMINATE, e);
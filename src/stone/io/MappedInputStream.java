@@ -0,0 +1,380 @@
+package stone.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.NoSuchElementException;
+
+/**
+ * A stream reading from a file with the same API as {@link InputStream}.
+ * Larger files are mapped into memory, smaller ones are read at once. Lines
+ * and parts of the file are taken directly from the mapping, so no method
+ * copies more than the returned bytes and no method locks. Instances must not
+ * be shared by several threads.
+ * <p>
+ * {@link #nextLine()} returns a view of the next line, which is reused for the
+ * following line and avoids creating a String for each line.
+ *
+ * @author Nelphindal
+ */
+public final class MappedInputStream extends java.io.InputStream {
+
+	/** files larger than this are mapped, smaller files are read at once */
+	private static final int MAP_THRESHOLD = 0x10000;
+
+	private final ArrayDeque<Integer> marked = new ArrayDeque<>();
+	private final Charset cs;
+	private final File file;
+	private final CharsetDecoder decoder;
+	private final boolean map;
+
+	private ByteBuffer buffer;
+	private ByteBuffer lineBuffer;
+	private CharBuffer line = CharBuffer.allocate(0x100);
+	private int start;
+	private boolean closed;
+	private IOHandler io;
+
+	/**
+	 * Generates a new stream reading from given file. The file is opened on
+	 * first access.
+	 *
+	 * @param file
+	 *            file to read from
+	 * @param cs
+	 *            charset used for encoding
+	 */
+	public MappedInputStream(final File file, final Charset cs) {
+		this(file, cs, true);
+	}
+
+	/**
+	 * Generates a new stream reading from given file. The file is opened on
+	 * first access. A file that is going to be replaced or deleted should not
+	 * be mapped, since a mapping is released only by the garbage collector
+	 * and keeps the file locked on some systems until then.
+	 *
+	 * @param file
+	 *            file to read from
+	 * @param cs
+	 *            charset used for encoding
+	 * @param map
+	 *            <i>false</i> to read the file at once whatever its size
+	 */
+	@SuppressWarnings("hiding")
+	public MappedInputStream(final File file, final Charset cs, boolean map) {
+		this.cs = cs;
+		this.file = file;
+		this.map = map;
+		this.decoder = cs.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	@Override
+	public final int available() throws IOException {
+		return buffer().remaining();
+	}
+
+	@Override
+	public final void close() {
+		this.closed = true;
+		this.buffer = null;
+		this.lineBuffer = null;
+	}
+
+	/**
+	 * Closes this stream and deletes the associated file
+	 *
+	 * @return <i>true</i> if deleting was successful
+	 * @see File#delete()
+	 */
+	public final boolean deleteFile() {
+		close();
+		return this.file.delete();
+	}
+
+	/**
+	 * Checks if <i>this</i> stream reached the end of file
+	 *
+	 * @return <i>true</i> if <i>this</i> stream reached the end of file
+	 * @throws IOException
+	 *             if the file can not be read
+	 */
+	public final boolean EOFreached() throws IOException {
+		if (buffer().hasRemaining()) {
+			return false;
+		}
+		if (this.io != null) {
+			this.io.endProgress("Reading done");
+			this.io = null;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns relative offset from the start of the bytes returned by last
+	 * call of {@link #readTo(byte, byte)} to a marked location.
+	 *
+	 * @return relative offset to marked location
+	 * @throws NoSuchElementException
+	 *             if no more marked position is available
+	 */
+	public final int getMarkedLoc() throws NoSuchElementException {
+		return this.marked.pop();
+	}
+
+	/**
+	 * Reads the next line. The byte 0x0a is removed as well as Windows line
+	 * (0x0d 0x0a). The returned sequence is valid until the next call of any
+	 * method of <i>this</i> stream.
+	 *
+	 * @return the decoded line or <i>null</i> if end of file has been reached
+	 * @throws IOException
+	 *             if the file can not be read
+	 */
+	public final CharSequence nextLine() throws IOException {
+		if (EOFreached()) {
+			return null;
+		}
+		final int end = skipTo((byte) '\n', -1);
+		int lineEnd = end;
+		if ((lineEnd > this.start) && (this.buffer.get(lineEnd - 1) == '\r')) {
+			--lineEnd;
+		}
+		this.lineBuffer.limit(lineEnd).position(this.start);
+		while (true) {
+			this.line.clear();
+			this.decoder.reset();
+			final CoderResult result = this.decoder.decode(this.lineBuffer,
+					this.line, true);
+			if (!result.isOverflow()
+					&& !this.decoder.flush(this.line).isOverflow()) {
+				break;
+			}
+			this.line = CharBuffer.allocate(2 * this.line.capacity());
+			this.lineBuffer.position(this.start);
+		}
+		this.line.flip();
+		return this.line;
+	}
+
+	/**
+	 * Returns next byte in <i>this</i> stream.
+	 *
+	 * @return next byte in <i>this</i> stream or -1 if there is no more byte
+	 *         because end of file has been reached.
+	 * @throws IOException
+	 *             if the file can not be read
+	 */
+	@Override
+	public final int read() throws IOException {
+		try {
+			final int read = 0xff & buffer().get();
+			if (this.io != null) {
+				this.io.updateProgress();
+			}
+			return read;
+		} catch (final BufferUnderflowException e) {
+			EOFreached();
+			return -1;
+		}
+	}
+
+	@Override
+	public final int read(final byte[] b, int off, int len) throws IOException {
+		if (EOFreached()) {
+			return -1;
+		}
+		final int n = Math.min(len, this.buffer.remaining());
+		this.buffer.get(b, off, n);
+		if (this.io != null) {
+			this.io.updateProgress(n);
+		}
+		return n;
+	}
+
+	/**
+	 * Reads all bytes from the start of the file and returns them in a byte
+	 * array.
+	 *
+	 * @return byte array holding bytes read
+	 * @throws IOException
+	 *             if the file can not be read
+	 */
+	public final byte[] readFully() throws IOException {
+		buffer().rewind();
+		final byte[] ret = new byte[this.buffer.remaining()];
+		this.buffer.get(ret);
+		return ret;
+	}
+
+	/**
+	 * Reads the next line. The byte 0x0a is removed as well as Windows line
+	 * (0x0d 0x0a)
+	 *
+	 * @return the decoded line or <i>null</i> if end of file has been reached
+	 * @throws IOException
+	 *             if the file can not be read
+	 * @see #nextLine()
+	 */
+	public final String readLine() throws IOException {
+		final CharSequence l = nextLine();
+		return l == null ? null : l.toString();
+	}
+
+	/**
+	 * Reads all bytes until next byte matching given terminal is reached.
+	 *
+	 * @param terminal
+	 *            byte to stop reading at
+	 * @return bytes between current position and given terminal byte or
+	 *         <i>null</i> if end of file has been reached
+	 * @throws IOException
+	 *             if the file can not be read
+	 */
+	public final byte[] readTo(byte terminal) throws IOException {
+		return readTo(terminal, -1);
+	}
+
+	/**
+	 * Reads all bytes until next byte matching given terminal is reached. All
+	 * positions of bytes matching given byte mark are marked
+	 *
+	 * @param terminal
+	 *            byte to stop reading at
+	 * @param mark
+	 *            byte to mark the position
+	 * @return bytes between current position and given terminal byte or
+	 *         <i>null</i> if end of file has been reached
+	 * @throws IOException
+	 *             if the file can not be read
+	 * @see #getMarkedLoc()
+	 */
+	public final byte[] readTo(byte terminal, byte mark) throws IOException {
+		return readTo(terminal, 0xff & mark);
+	}
+
+	/**
+	 * Registers an IO-Handler for managing a {@link ProgressMonitor} for
+	 * {@link #read()}
+	 *
+	 * @param io
+	 *            {@link IOHandler} providing a instance of
+	 *            {@link ProgressMonitor}
+	 */
+	public final void registerProgressMonitor(
+			@SuppressWarnings("hiding") final IOHandler io) {
+		this.io = io;
+		io.startProgress("Reading file", (int) this.file.length());
+	}
+
+	@Override
+	public final long skip(long n) throws IOException {
+		final int skipped = (int) Math.max(0,
+				Math.min(n, buffer().remaining()));
+		this.buffer.position(this.buffer.position() + skipped);
+		return skipped;
+	}
+
+	private final ByteBuffer buffer() throws IOException {
+		if (this.buffer != null) {
+			return this.buffer;
+		}
+		if (this.closed) {
+			throw new IOException("Stream closed");
+		}
+		if (!this.file.exists()) {
+			this.buffer = ByteBuffer.allocate(0);
+		} else {
+			try (final FileChannel channel = FileChannel.open(
+					this.file.toPath(), StandardOpenOption.READ)) {
+				final long size = channel.size();
+				if (size > Integer.MAX_VALUE) {
+					throw new IOException(this.file + " is too large");
+				}
+				if (this.map && (size > MAP_THRESHOLD)) {
+					this.buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+							0, size);
+				} else {
+					this.buffer = ByteBuffer.allocate((int) size);
+					while (this.buffer.hasRemaining()
+							&& (channel.read(this.buffer) >= 0)) {
+						// read until the buffer is full
+					}
+					this.buffer.flip();
+				}
+			}
+		}
+		this.lineBuffer = this.buffer.duplicate();
+		// remove byte order mark
+		final String csName = this.cs.toString();
+		if (csName.equals("UTF-16")) {
+			// FF FE
+			if ((this.buffer.remaining() >= 2)
+					&& (this.buffer.get(0) == -1)
+					&& (this.buffer.get(1) == -2)) {
+				this.buffer.position(2);
+			}
+		} else if (csName.equals("UTF-8")) {
+			// EF BB BF
+			if ((this.buffer.remaining() >= 3)
+					&& (this.buffer.get(0) == -17)
+					&& (this.buffer.get(1) == -69)
+					&& (this.buffer.get(2) == -65)) {
+				this.buffer.position(3);
+			}
+		}
+		return this.buffer;
+	}
+
+	private final byte[] readTo(byte terminal, int mark) throws IOException {
+		this.marked.clear();
+		if (EOFreached()) {
+			return null;
+		}
+		final int end = skipTo(terminal, mark);
+		final byte[] ret = new byte[end - this.start];
+		this.lineBuffer.limit(end).position(this.start);
+		this.lineBuffer.get(ret);
+		return ret;
+	}
+
+	/**
+	 * Moves the position behind next byte matching <i>terminal</i> and sets
+	 * {@link #start} to the previous position. Bytes equal to <i>mark</i>,
+	 * given as unsigned value or -1 for none, are added to {@link #marked}.
+	 *
+	 * @return the index of the found terminal or the end of file
+	 */
+	private final int skipTo(byte terminal, int mark) {
+		final ByteBuffer b = this.buffer;
+		this.start = b.position();
+		final int limit = b.limit();
+		int pos = this.start;
+		while (pos < limit) {
+			final byte c = b.get(pos);
+			if (c == terminal) {
+				break;
+			}
+			if ((mark >= 0) && ((0xff & c) == mark)) {
+				this.marked.add(pos - this.start);
+			}
+			++pos;
+		}
+		b.position(Math.min(limit, pos + 1));
+		if (this.io != null) {
+			this.io.updateProgress(b.position() - this.start);
+		}
+		return pos;
+	}
+}
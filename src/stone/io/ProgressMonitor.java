@@ -1,17 +1,57 @@
 package stone.io;
 
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
 /**
  * A progress monitor either using a GUI or printing on stdout to display a
  * progress.
+ * <p>
+ * Calls of {@link #update(int)} only add to a counter. The sum is passed to the
+ * GUI and stdout by a separate thread at a fixed rate, so many threads can
+ * report their progress without waiting for each other.
  * 
  * @author Nelphindal
  */
 public class ProgressMonitor {
 
+	private static final long PUBLISH_PERIOD = 33;
+
+	private static final ScheduledExecutorService publisher = Executors
+			.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+				@Override
+				public final Thread newThread(final Runnable r) {
+					final Thread t = new Thread(r, "Progress");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+
 	private final GUIInterface gui;
+	private final LongAdder units = new LongAdder();
+	private final Runnable publish = new Runnable() {
+
+		@Override
+		public final void run() {
+			try {
+				publish();
+			} catch (final RuntimeException e) {
+				// the GUI refuses to be updated while the master is being
+				// interrupted, the next run will try again
+			}
+		}
+	};
+	private ScheduledFuture<?> publishing;
+	private long published;
 	private int progress;
 	private boolean init = false;
 	private int max;
+	private String format;
 
 	/**
 	 * Creates a new instance using GUI <i>gui</i>
@@ -35,6 +75,8 @@ public class ProgressMonitor {
 	 */
 	public final synchronized void beginTask(final String paramString,
 			int paramInt) {
+		// drop units reported before this task started
+		this.published = this.units.sum();
 		if (paramInt < 0) {
 			this.progress = -1;
 		} else {
@@ -56,10 +98,12 @@ public class ProgressMonitor {
 		if (!this.init) {
 			startSafe();
 		}
+		// add units reported but not published yet to the preserved progress
+		publish();
 		System.out.printf("\r%s\n", paramString);
 		this.gui.setProgressSize(paramInt, paramString);
 		this.gui.setProgress(this.progress);
-		this.max = paramInt;
+		setMax(paramInt);
 
 	}
 
@@ -70,6 +114,15 @@ public class ProgressMonitor {
 	 *            passed to {@link GUIInterface#endProgress(String)}
 	 */
 	public final void endProgress(final String text) {
+		final ScheduledFuture<?> running;
+		synchronized (this) {
+			running = this.publishing;
+			this.publishing = null;
+		}
+		if (running != null) {
+			running.cancel(false);
+		}
+		publish();
 		if (this.init) {
 			this.gui.endProgress(text);
 			System.out.println();
@@ -82,10 +135,11 @@ public class ProgressMonitor {
 	 *            the new maximum size
 	 */
 	public final synchronized void setProgressSize(int size) {
+		publish();
 		this.gui.setProgressSize(size);
 		this.progress = size < 0 ? -1 : this.progress < 0 ? 0 : this.progress;
 		this.gui.setProgress(this.progress);
-		this.max = size;
+		setMax(size);
 	}
 
 	/**
@@ -100,34 +154,65 @@ public class ProgressMonitor {
 	}
 
 	/**
-	 * Adds to current progress <i>paramInt</i> units
+	 * Adds to current progress <i>paramInt</i> units. The new progress will be
+	 * displayed within {@value #PUBLISH_PERIOD} ms.
 	 * 
 	 * @param paramInt
-	 *            units to add
+	 *            units to add, a negative value increases the units
+	 *            representing 100% too
 	 */
-	public final synchronized void update(int paramInt) {
-		if (!this.init || (this.progress < 0)) {
+	public final void update(int paramInt) {
+		if (paramInt < 0) {
+			synchronized (this) {
+				if (!this.init || (this.progress < 0)) {
+					return;
+				}
+				publish();
+				this.max -= paramInt;
+				this.gui.setProgressSize(this.max);
+				setMax(this.max);
+			}
+			this.units.add(-paramInt);
 			return;
 		}
-		if (paramInt < 0) {
-			this.max -= paramInt;
-			this.gui.setProgressSize(this.max);
-			update(-paramInt);
+		this.units.add(paramInt);
+	}
+
+	/**
+	 * Passes the units added since last call to the GUI and stdout.
+	 */
+	private final synchronized void publish() {
+		final long sum = this.units.sum();
+		final int delta = (int) (sum - this.published);
+		this.published = sum;
+		if ((delta == 0) || !this.init || (this.progress < 0)) {
 			return;
 		}
-		this.gui.setProgress(this.progress += paramInt);
+		this.gui.setProgress(this.progress += delta);
 		if (this.max > 0) {
-			final int digits = (int) Math.log10(this.max) + 1;
-			System.out.printf(String.format("\r%%%dd / %%%dd (%%6.2f%%%%)",
-					digits, digits), this.progress, this.max,
+			System.out.printf(this.format, this.progress, this.max,
 					(this.progress * 100.0) / this.max);
 		}
 	}
 
+	private final void setMax(@SuppressWarnings("hiding") int max) {
+		this.max = max;
+		if (max > 0) {
+			final int digits = (int) Math.log10(max) + 1;
+			this.format = String.format("\r%%%dd / %%%dd (%%6.2f%%%%)",
+					digits, digits);
+		}
+	}
+
 	private final void startSafe() {
 		this.init = true;
 		this.progress = 0;
 		this.gui.initProgress();
+		if (this.publishing == null) {
+			this.publishing = ProgressMonitor.publisher.scheduleAtFixedRate(
+					this.publish, PUBLISH_PERIOD, PUBLISH_PERIOD,
+					TimeUnit.MILLISECONDS);
+		}
 	}
 
 }
@@ -0,0 +1,146 @@
+package stone.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Set of open streams, registering and closing a stream takes constant time
+ * without any global lock. Streams are referenced weakly by their identity.
+ * Streams collected by the garbage collector without being closed by
+ * {@link #close(Closeable)} are counted as leaked.
+ *
+ * @author Nelphindal
+ */
+final class StreamRegistry {
+
+	private final static class Key extends WeakReference<Closeable> {
+
+		private final int hash;
+
+		Key(final Closeable c, final ReferenceQueue<Closeable> queue) {
+			super(c, queue);
+			this.hash = System.identityHashCode(c);
+		}
+
+		@Override
+		public final boolean equals(final Object o) {
+			if (o == this) {
+				return true;
+			}
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			final Closeable c = get();
+			return (c != null) && (c == ((Key) o).get());
+		}
+
+		@Override
+		public final int hashCode() {
+			return this.hash;
+		}
+	}
+
+	private final Set<Key> streams = ConcurrentHashMap.newKeySet();
+	private final ReferenceQueue<Closeable> queue = new ReferenceQueue<>();
+	private final AtomicInteger open = new AtomicInteger();
+	private final AtomicInteger peak = new AtomicInteger();
+	private final AtomicInteger leaked = new AtomicInteger();
+
+	/**
+	 * Closes given stream if it has been registered before.
+	 *
+	 * @param c
+	 *            stream to close
+	 * @return <i>true</i> if <i>c</i> had been registered
+	 * @throws IOException
+	 *             if closing <i>c</i> fails
+	 */
+	final boolean close(final Closeable c) throws IOException {
+		expunge();
+		if (!this.streams.remove(new Key(c, null))) {
+			return false;
+		}
+		this.open.decrementAndGet();
+		c.close();
+		return true;
+	}
+
+	/**
+	 * Removes all registered streams.
+	 *
+	 * @return the streams not collected yet, to be closed by the caller
+	 */
+	final Closeable[] drain() {
+		expunge();
+		final List<Closeable> list = new ArrayList<>();
+		for (final Key key : this.streams) {
+			if (this.streams.remove(key)) {
+				this.open.decrementAndGet();
+				final Closeable c = key.get();
+				if (c != null) {
+					list.add(c);
+				}
+			}
+		}
+		return list.toArray(new Closeable[list.size()]);
+	}
+
+	/**
+	 * @return number of streams leaked
+	 */
+	final int leaked() {
+		expunge();
+		return this.leaked.get();
+	}
+
+	/**
+	 * @return number of streams currently open
+	 */
+	final int open() {
+		expunge();
+		return this.open.get();
+	}
+
+	/**
+	 * @return maximum number of streams open at the same time
+	 */
+	final int peak() {
+		return this.peak.get();
+	}
+
+	/**
+	 * Registers a new stream.
+	 *
+	 * @param c
+	 *            stream to register
+	 */
+	final void register(final Closeable c) {
+		expunge();
+		if (!this.streams.add(new Key(c, this.queue))) {
+			return;
+		}
+		final int n = this.open.incrementAndGet();
+		int p;
+		while ((n > (p = this.peak.get())) && !this.peak.compareAndSet(p, n)) {
+			// retry
+		}
+	}
+
+	private final void expunge() {
+		Reference<? extends Closeable> ref;
+		while ((ref = this.queue.poll()) != null) {
+			if (this.streams.remove(ref)) {
+				this.open.decrementAndGet();
+				this.leaked.incrementAndGet();
+			}
+		}
+	}
+}
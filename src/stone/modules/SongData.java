@@ -3,7 +3,7 @@ package stone.modules;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Iterator;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -12,18 +12,22 @@ import java.util.TreeMap;
 import stone.MasterThread;
 import stone.StartupContainer;
 import stone.io.IOHandler;
-import stone.io.OutputStream;
 import stone.modules.songData.AbtractEoWInAbc;
 import stone.modules.songData.Crawler;
 import stone.modules.songData.DeserializeContainer;
 import stone.modules.songData.Deserializer;
 import stone.modules.songData.DirTree;
+import stone.modules.songData.PluginDataWriter;
 import stone.modules.songData.Scanner;
 import stone.modules.songData.SerializeConainer;
 import stone.modules.songData.SongDataEntry;
+import stone.util.BooleanOption;
 import stone.util.Debug;
+import stone.util.Flag;
 import stone.util.Option;
+import stone.util.OptionContainer;
 import stone.util.Path;
+import stone.util.StringOption;
 import stone.util.TaskPool;
 
 
@@ -36,6 +40,24 @@ public class SongData implements Module {
 
 	private static final int VERSION = 4;
 
+	private static final String SECTION = "[songData]";
+
+	final static BooleanOption createFullRescanOption(final OptionContainer oc) {
+		return new BooleanOption(oc, "fullRescan",
+				"Ignores the stored modification dates of directories and looks at every file. "
+						+ "Use it if songs edited in place are not updated.",
+				"Full rescan", Flag.NoShortFlag, "full-rescan",
+				SongData.SECTION, null, false);
+	}
+
+	final static StringOption createHeaderBudgetOption(final OptionContainer oc) {
+		return new StringOption(oc, "headerBudget",
+				"Number of bytes to read after the last X: line of a song before skipping the rest of it. "
+						+ "0 reads always the complete song.",
+				"Header budget", Flag.NoShortFlag, "header-budget",
+				SongData.SECTION, "headerBudget", "0");
+	}
+
 	/**
 	 * Decodes serialized data of a single entry
 	 * 
@@ -95,10 +117,16 @@ public class SongData implements Module {
 
 	private final MasterThread master;
 
+	private final BooleanOption FULL_RESCAN;
+
+	private final StringOption HEADER_BUDGET;
+
 	/**
 	 * Constructor for building versionInfo
 	 */
 	public SongData() {
+		this.FULL_RESCAN = null;
+		this.HEADER_BUDGET = null;
 		this.tree = null;
 		this.taskPool = null;
 		this.master = null;
@@ -115,6 +143,10 @@ public class SongData implements Module {
 		this.io = sc.getIO();
 		this.taskPool = sc.getTaskPool();
 		this.master = sc.getMaster();
+		this.FULL_RESCAN = SongData.createFullRescanOption(sc
+				.getOptionContainer());
+		this.HEADER_BUDGET = SongData.createHeaderBudgetOption(sc
+				.getOptionContainer());
 
 		final String home = sc.getMain().getConfigValue(Main.GLOBAL_SECTION,
 				Main.PATH_KEY, null);
@@ -149,13 +181,18 @@ public class SongData implements Module {
 		Debug.print("Searching for songs at \"" + this.tree.getRoot() + "\".\n");
 
 		final Deserializer sdd = Deserializer.init(this, this.master);
-		final Scanner scanner = new Scanner(this.master, sdd, this.tree);
+		final Scanner scanner = new Scanner(this.master, sdd, this.tree,
+				getHeaderBudget());
 		final Crawler crawler = new Crawler(sdd);
 		final Runnable taskDeserial = sdd.getDeserialTask();
 
+		final TaskPool.TaskGroup tasks = this.taskPool.createGroup();
+		// reading songs is waiting for I/O mostly
+		final TaskPool.TaskGroup scanTasks = this.taskPool.createIOGroup();
+
 		if (taskDeserial == null) {
-			this.taskPool.addTaskForAll(crawler, 30);
-			this.taskPool.addTaskForAll(scanner);
+			tasks.addTask(crawler);
+			scanTasks.addTaskForAll(scanner, 200);
 			try {
 				sdd.deserialize();
 			} catch (final IOException e) {
@@ -164,14 +201,15 @@ public class SongData implements Module {
 				sdd.abort();
 			}
 		} else {
-			this.taskPool.addTaskForAll(taskDeserial, 75);
-			this.taskPool.addTaskForAll(crawler, 25);
-			this.taskPool.addTaskForAll(scanner);
+			tasks.addTaskForAll(taskDeserial, 75);
+			tasks.addTask(crawler);
+			scanTasks.addTaskForAll(scanner, 200);
 			taskDeserial.run();
 		}
 		crawler.run();
 		scanner.run();
-		this.taskPool.waitForTasks();
+		tasks.await();
+		scanTasks.await();
 		if (this.master.isInterrupted()) {
 			sdd.abort();
 			return;
@@ -186,6 +224,14 @@ public class SongData implements Module {
 		Debug.print("\n----------\n%4d songs found", sdd.songsFound());
 	}
 
+	/**
+	 * @return a fingerprint of all found songs
+	 * @see DirTree#fingerprint()
+	 */
+	public final long fingerprint() {
+		return this.tree.fingerprint();
+	}
+
 	/**
 	 * Returns all directories at given directory
 	 * 
@@ -222,7 +268,10 @@ public class SongData implements Module {
 
 	@Override
 	public List<Option> getOptions() {
-		return java.util.Collections.emptyList();
+		final List<Option> list = new ArrayList<>(2);
+		list.add(this.FULL_RESCAN);
+		list.add(this.HEADER_BUDGET);
+		return list;
 	}
 
 	/**
@@ -249,6 +298,33 @@ public class SongData implements Module {
 		return VERSION;
 	}
 
+	/**
+	 * @return number of bytes to read after the last X: line of a song, 0 if
+	 *         the complete song has to be read
+	 */
+	public final long getHeaderBudget() {
+		if (this.HEADER_BUDGET == null) {
+			return 0;
+		}
+		final String value = this.HEADER_BUDGET.value();
+		if (value == null) {
+			return 0;
+		}
+		try {
+			return Math.max(0, Long.parseLong(value.trim()));
+		} catch (final NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * @return <i>true</i> if the stored modification dates of directories
+	 *         shall be ignored
+	 */
+	public final boolean isFullRescan() {
+		return (this.FULL_RESCAN != null) && this.FULL_RESCAN.getValue();
+	}
+
 	/**
 	 * @param song
 	 *            -
@@ -301,70 +377,6 @@ public class SongData implements Module {
 	 *            the file where the Songbook-plugin expects it
 	 */
 	public final void writeNewSongbookData(final File masterPluginData) {
-		final OutputStream outMaster;
-
-		outMaster = this.io.openOut(masterPluginData);
-		try {
-			// head
-			this.io.write(outMaster, "return\r\n{\r\n");
-
-			// section dirs
-			this.io.write(outMaster, "\t[\"Directories\"] =\r\n\t{\r\n");
-			final Iterator<Path> dirIterator = this.tree.dirsIterator();
-			if (dirIterator.hasNext()) {
-				this.io.write(outMaster, "\t\t[1] = \"/\"");
-				for (int dirIdx = 2; dirIterator.hasNext(); dirIdx++) {
-					this.io.writeln(outMaster, ",");
-					this.io.write(outMaster, "\t\t["
-							+ dirIdx
-							+ "] = \"/"
-							+ dirIterator.next()
-									.relativize(this.tree.getRoot()) + "/\"");
-				}
-				this.io.writeln(outMaster, "");
-			}
-			this.io.writeln(outMaster, "\t},");
-
-			// section songs
-			this.io.writeln(outMaster, "\t[\"Songs\"] =");
-			int songIdx = 0;
-
-			final Iterator<Path> songsIterator = this.tree.filesIterator();
-			while (songsIterator.hasNext()) {
-				final Path path = songsIterator.next();
-				final SongDataEntry song = this.tree.get(path);
-				if (songIdx++ == 0) {
-					this.io.writeln(outMaster, "\t{");
-				} else {
-					this.io.writeln(outMaster, "\t\t},");
-				}
-
-				this.io.writeln(outMaster, "\t\t[" + songIdx + "] =");
-				this.io.writeln(outMaster, "\t\t{");
-				final String name;
-				name = path.getFilename().substring(0,
-						path.getFilename().lastIndexOf("."));
-
-				this.io.write(outMaster, "\t\t\t[\"Filepath\"] = \"/");
-				if (path.getParent() != this.tree.getRoot()) {
-					this.io.write(outMaster,
-							path.getParent().relativize(this.tree.getRoot()));
-					this.io.write(outMaster, "/");
-				}
-				this.io.writeln(outMaster, "\",");
-				this.io.writeln(outMaster, "\t\t\t[\"Filename\"] = \"" + name
-						+ "\",");
-				this.io.writeln(outMaster, "\t\t\t[\"Tracks\"] = ");
-				this.io.write(outMaster, song.toPluginData());
-				this.io.updateProgress();
-			}
-
-			// tail
-			this.io.writeln(outMaster, "\t\t}");
-			this.io.writeln(outMaster, "\t}");
-			this.io.write(outMaster, "}");
-		} finally {
-			this.io.close(outMaster);
-		}
+		new PluginDataWriter(this.tree, this.io).write(masterPluginData);
 	}
 }
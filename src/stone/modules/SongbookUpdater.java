@@ -1,18 +1,27 @@
 package stone.modules;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.zip.CRC32;
 
 import stone.Config;
 import stone.MasterThread;
 import stone.StartupContainer;
 import stone.io.ExceptionHandle;
 import stone.io.IOHandler;
-import stone.io.OutputStream;
 import stone.util.Debug;
 import stone.util.Option;
 import stone.util.Path;
@@ -34,6 +43,7 @@ public final class SongbookUpdater implements Module {
 	private final MasterThread master;
 
 	private final static String USER = "UserPreferences.ini";
+	private final static String FINGERPRINT_SUFFIX = ".fp";
 	/** %HOME%\The Lord of The Rings Online */
 	private final Path pluginDataPath;
 	private final Path songbookPlugindataPath;
@@ -76,7 +86,10 @@ public final class SongbookUpdater implements Module {
 	/** */
 	@Override
 	public final List<Option> getOptions() {
-		return java.util.Collections.emptyList();
+		if (this.master == null) {
+			return java.util.Collections.emptyList();
+		}
+		return this.master.getModule("SongData").getOptions();
 	}
 
 	/** */
@@ -140,6 +153,170 @@ public final class SongbookUpdater implements Module {
 		updateSongbookData(end - start);
 	}
 
+	private final static boolean contentEquals(final File a, final File b)
+			throws IOException {
+		if (a.length() != b.length()) {
+			return false;
+		}
+		try (final FileChannel inA = FileChannel.open(a.toPath(),
+				StandardOpenOption.READ);
+				final FileChannel inB = FileChannel.open(b.toPath(),
+						StandardOpenOption.READ)) {
+			final ByteBuffer bufferA = ByteBuffer.allocateDirect(0x10000);
+			final ByteBuffer bufferB = ByteBuffer.allocateDirect(0x10000);
+			while (true) {
+				final boolean endA = fill(inA, bufferA);
+				final boolean endB = fill(inB, bufferB);
+				if (!bufferA.equals(bufferB)) {
+					return false;
+				}
+				if (endA || endB) {
+					return endA == endB;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the CRC-32 of the content of given file
+	 */
+	private final static long checksum(final File file) throws IOException {
+		final CRC32 crc = new CRC32();
+		try (final FileChannel in = FileChannel.open(file.toPath(),
+				StandardOpenOption.READ)) {
+			final ByteBuffer buffer = ByteBuffer.allocateDirect(0x10000);
+			boolean end;
+			do {
+				end = fill(in, buffer);
+				crc.update(buffer);
+			} while (!end);
+		}
+		return crc.getValue();
+	}
+
+	/**
+	 * Reads from <i>in</i> until <i>buffer</i> is full or end of file has been
+	 * reached and flips <i>buffer</i>.
+	 * 
+	 * @return <i>true</i> if end of file has been reached
+	 */
+	private final static boolean fill(final FileChannel in,
+			final ByteBuffer buffer) throws IOException {
+		buffer.clear();
+		boolean end = false;
+		while (buffer.hasRemaining()) {
+			if (in.read(buffer) < 0) {
+				end = true;
+				break;
+			}
+		}
+		buffer.flip();
+		return end;
+	}
+
+	/**
+	 * Puts the content of <i>master</i> into <i>target</i>. Nothing is done if
+	 * <i>target</i> has already the same content. Otherwise <i>target</i> is
+	 * replaced by a hard link to <i>master</i>, or, if linking is not possible,
+	 * by a copy of <i>master</i> made by a channel transfer. Either is created
+	 * next to <i>target</i> and moved onto it, since <i>target</i> may be a
+	 * link shared with other profiles.
+	 */
+	private final static void copyToProfile(final File master,
+			final File target) throws IOException {
+		if (target.exists() && contentEquals(master, target)) {
+			Debug.print("%s is up to date\n", target.toString());
+			return;
+		}
+		final java.nio.file.Path targetPath = target.toPath();
+		final java.nio.file.Path link = targetPath.resolveSibling(target
+				.getName() + ".new");
+		try {
+			Files.deleteIfExists(link);
+			Files.createLink(link, master.toPath());
+			Files.move(link, targetPath, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			return;
+		} catch (final IOException | UnsupportedOperationException
+				| SecurityException e) {
+			Debug.print("Failed to link %s, copying it\n%s\n",
+					target.toString(), e.getLocalizedMessage());
+			Files.deleteIfExists(link);
+		}
+		try {
+			try (final FileChannel in = FileChannel.open(master.toPath(),
+					StandardOpenOption.READ);
+					final FileChannel out = FileChannel.open(link,
+							StandardOpenOption.CREATE_NEW,
+							StandardOpenOption.WRITE)) {
+				final long size = in.size();
+				long position = 0;
+				while (position < size) {
+					position += in.transferTo(position, size - position, out);
+				}
+			}
+			Files.move(link, targetPath, StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(link);
+		}
+	}
+
+	private final stone.util.Path getTarget(final String profile) {
+		return this.pluginDataPath.resolve(profile).resolve("AllServers")
+				.resolve("SongbookData.plugindata");
+	}
+
+	/**
+	 * Checks if the stored fingerprint equals <i>fingerprint</i> and the
+	 * SongbookData.plugindata of each profile has the length and checksum
+	 * written along with the stored fingerprint.
+	 */
+	private final boolean isUpToDate(final File fingerprintFile,
+			long fingerprint, final Set<String> profiles) {
+		if (!fingerprintFile.exists()) {
+			return false;
+		}
+		final long length;
+		final long checksum;
+		try (final DataInputStream in = new DataInputStream(
+				new FileInputStream(fingerprintFile))) {
+			if ((in.readInt() != VERSION) || (in.readLong() != fingerprint)) {
+				return false;
+			}
+			length = in.readLong();
+			checksum = in.readLong();
+		} catch (final IOException e) {
+			return false;
+		}
+		try {
+			for (final String profile : profiles) {
+				final File target = getTarget(profile).toFile();
+				if (!target.isFile() || (target.length() != length)
+						|| (checksum(target) != checksum)) {
+					return false;
+				}
+			}
+		} catch (final IOException e) {
+			return false;
+		}
+		return true;
+	}
+
+	private final void writeFingerprint(final File fingerprintFile,
+			long fingerprint, long length, long checksum) {
+		try (final DataOutputStream out = new DataOutputStream(
+				new FileOutputStream(fingerprintFile))) {
+			out.writeInt(VERSION);
+			out.writeLong(fingerprint);
+			out.writeLong(length);
+			out.writeLong(checksum);
+		} catch (final IOException e) {
+			Debug.print("Failed to write %s\n%s", fingerprintFile,
+					e.getLocalizedMessage());
+			fingerprintFile.delete();
+		}
+	}
+
 	private void updateSongbookData(long durationSearch) {
 		if (this.master.isInterrupted()) {
 			return;
@@ -204,54 +381,86 @@ public final class SongbookUpdater implements Module {
 			return;
 		}
 
-		final File masterPluginData = this.songbookPlugindataPath.toFile();
-		masterPluginData.deleteOnExit();
+		final long fingerprint = data.fingerprint();
+		final File fingerprintFile = this.pluginDataPath.resolve(
+				this.songbookPlugindataPath.getFilename() + FINGERPRINT_SUFFIX)
+				.toFile();
+		if (isUpToDate(fingerprintFile, fingerprint, profiles)) {
+			Debug.print("No song changed, keeping %s of %d profiles\n",
+					"SongbookData.plugindata", profiles.size());
+		} else {
+			fingerprintFile.delete();
+			final File masterPluginData = this.songbookPlugindataPath.toFile();
+			masterPluginData.deleteOnExit();
 
-		// write master plugindata and updateFileNew
-		this.io.startProgress("Writing " + masterPluginData.getName(),
-				data.size());
-		data.writeNewSongbookData(masterPluginData);
+			// write master plugindata and updateFileNew
+			this.io.startProgress("Writing " + masterPluginData.getName(),
+					data.size());
+			data.writeNewSongbookData(masterPluginData);
 
-		this.io.startProgress("", profiles.size());
-		Debug.print("%2d profiles found:\n", profiles.size());
-		for (final String profile : profiles) {
-			Debug.print("- %s\n", profile);
-		}
-		Debug.print("\n");
-
-		// copy from master plugindata to each profile
-		final Iterator<String> profilesIter = profiles.iterator();
-		while (profilesIter.hasNext()) {
-			final String profile = profilesIter.next();
-			this.io.setProgressTitle("Copying Songbook.plugindata to "
-					+ profile);
-			final stone.util.Path targetP = this.pluginDataPath
-					.resolve(profile).resolve("AllServers")
-					.resolve("SongbookData.plugindata");
-			final File target = targetP.toFile();
-			Debug.print("Copying songbook.plugindata to %s\n",
-					target.toString());
-			if (!target.exists()) {
+			this.io.startProgress("", profiles.size());
+			Debug.print("%2d profiles found:\n", profiles.size());
+			for (final String profile : profiles) {
+				Debug.print("- %s\n", profile);
+			}
+			Debug.print("\n");
+
+			// copy from master plugindata to each profile
+			boolean failed = false;
+			final Iterator<String> profilesIter = profiles.iterator();
+			while (profilesIter.hasNext()) {
+				final String profile = profilesIter.next();
+				this.io.setProgressTitle("Copying Songbook.plugindata to "
+						+ profile);
+				final stone.util.Path targetP = getTarget(profile);
+				final File target = targetP.toFile();
+				Debug.print("Copying songbook.plugindata to %s\n",
+						target.toString());
+				if (!target.exists()) {
+					try {
+						target.getParentFile().mkdirs();
+						target.createNewFile();
+					} catch (final IOException e) {
+						Debug.print("Failed to create %s\n%s",
+								target.getAbsolutePath(),
+								e.getLocalizedMessage());
+						this.io.printMessage(
+								"Update for " + profile + " failed",
+								Main.formatMaxLength(targetP.getParent(),
+										targetP.getFilename(),
+										"Failed to create",
+										"\nSee the log for more details"),
+								true);
+						this.io.updateProgress();
+						failed = true;
+						continue;
+					}
+				}
 				try {
-					target.getParentFile().mkdirs();
-					target.createNewFile();
+					copyToProfile(masterPluginData, target);
 				} catch (final IOException e) {
-					Debug.print("Failed to create %s\n%s",
+					Debug.print("Failed to write %s\n%s",
 							target.getAbsolutePath(), e.getLocalizedMessage());
 					this.io.printMessage("Update for " + profile + " failed",
 							Main.formatMaxLength(targetP.getParent(),
-									targetP.getFilename(), "Failed to create",
+									targetP.getFilename(), "Failed to write",
 									"\nSee the log for more details"), true);
-					this.io.updateProgress();
-					continue;
+					failed = true;
+				}
+				this.io.updateProgress();
+			}
+			if (!failed) {
+				try {
+					writeFingerprint(fingerprintFile, fingerprint,
+							masterPluginData.length(),
+							checksum(masterPluginData));
+				} catch (final IOException e) {
+					Debug.print("Failed to read %s\n%s", masterPluginData,
+							e.getLocalizedMessage());
 				}
 			}
-			final OutputStream out = this.io.openOut(target);
-			this.io.write(this.io.openIn(masterPluginData), out);
-			this.io.close(out);
-			this.io.updateProgress();
+			masterPluginData.delete();
 		}
-		masterPluginData.delete();
 		this.io.endProgress("");
 		final long end = System.currentTimeMillis();
 		Debug.print(
@@ -7,12 +7,12 @@ import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
-import org.bouncycastle.crypto.engines.AESEngine;
-import org.bouncycastle.crypto.params.KeyParameter;
 import org.eclipse.jgit.api.CheckoutCommand;
 import org.eclipse.jgit.api.CommitCommand;
 import org.eclipse.jgit.api.DiffCommand;
@@ -33,6 +33,7 @@ import org.eclipse.jgit.api.errors.WrongRepositoryStateException;
 import org.eclipse.jgit.diff.DiffEntry;
 import org.eclipse.jgit.diff.DiffEntry.ChangeType;
 import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheEditor;
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.lib.ObjectId;
@@ -47,6 +48,8 @@ import org.eclipse.jgit.transport.CredentialsProvider;
 import org.eclipse.jgit.transport.RefSpec;
 import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
 import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
 
 import stone.Config;
 import stone.MasterThread;
@@ -55,10 +58,13 @@ import stone.io.ExceptionHandle;
 import stone.io.IOHandler;
 import stone.io.InputStream;
 import stone.io.OutputStream;
+import stone.modules.versionControl.AESPipeline;
 import stone.modules.versionControl.CommitComparator;
+import stone.modules.versionControl.CommitGraph;
 import stone.modules.versionControl.NoYesPlugin;
 import stone.modules.versionControl.SecretKeyPlugin;
 import stone.modules.versionControl.StagePlugin;
+import stone.util.AtomicFileWriter;
 import stone.util.BooleanOption;
 import stone.util.Debug;
 import stone.util.Flag;
@@ -67,6 +73,7 @@ import stone.util.Option;
 import stone.util.OptionContainer;
 import stone.util.Path;
 import stone.util.StringOption;
+import stone.util.TaskPool;
 
 /**
  * The class handling all interaction with the jgit library
@@ -141,6 +148,8 @@ public final class VersionControl implements Module {
 
 	private final IOHandler io;
 
+	private final TaskPool taskPool;
+
 	private final MasterThread master;
 
 	private final Path base, repoRoot;
@@ -154,6 +163,7 @@ public final class VersionControl implements Module {
 	 */
 	public VersionControl() {
 		this.io = null;
+		this.taskPool = null;
 		this.GIT_URL_SSH = null;
 		this.GIT_URL_HTTPS = null;
 		this.PWD = null;
@@ -188,6 +198,7 @@ public final class VersionControl implements Module {
 		}
 		oc = sc.getOptionContainer();
 		this.io = sc.getIO();
+		this.taskPool = sc.getTaskPool();
 		this.GIT_URL_SSH = VersionControl.createStringOption(oc, "url_ssh",
 				VersionControl.DEFAULT_GIT_URL_SSH, Flag.NoShortFlag,
 				"git-url-ssh",
@@ -259,6 +270,7 @@ public final class VersionControl implements Module {
 		final String bandValue = this.main.getConfigValue(
 				Main.VC_SECTION, Main.REPO_KEY, "band");
 		this.io = vc.io;
+		this.taskPool = vc.taskPool;
 		this.GIT_URL_SSH = vc.GIT_URL_SSH;
 		this.GIT_URL_HTTPS = vc.GIT_URL_HTTPS;
 		this.RESET = vc.RESET;
@@ -281,6 +293,8 @@ public final class VersionControl implements Module {
 	}
 
 	/**
+	 * Encrypts or decrypts a single file. Only the title of a running
+	 * progress is set, so this can be called within any progress.
 	 * 
 	 * @param source
 	 *            input
@@ -294,76 +308,82 @@ public final class VersionControl implements Module {
 			boolean encrypt) {
 		if (target == null) {
 			if (encrypt) {
-				return encrypt(source,
-						"enc/" + source.substring(0, source.length() - 8)
-								+ ".abc", true);
+				return encrypt(source, VersionControl.encryptedPath(source),
+						true);
 			}
 			throw new IllegalArgumentException("target is null");
 		}
-		final AESEngine engine = new AESEngine();
-		final String savedKey = this.main.getConfigValue(Main.VC_SECTION,
-				VersionControl.AES_KEY, null);
-		final byte[] key;
-		if (savedKey == null) {
-			final SecretKeyPlugin secretKeyPlugin = new SecretKeyPlugin();
-			this.io.handleGUIPlugin(secretKeyPlugin);
-			key = secretKeyPlugin.getKey();
-			this.main.setConfigValue(Main.VC_SECTION, VersionControl.AES_KEY,
-					secretKeyPlugin.getValue());
+		final Map<String, String> files = new LinkedHashMap<>();
+		files.put(source, target);
+		if (encrypt) {
+			this.io.setProgressTitle("Encrypting " + target);
 		} else {
-			key = SecretKeyPlugin.decode(savedKey);
+			this.io.setProgressTitle("Decrypting " + target);
 		}
-		final KeyParameter keyParam;
-		keyParam = new KeyParameter(key);
-		if (savedKey == null) {
-			this.main.flushConfig();
-		}
-		final Path input = this.repoRoot.resolve(source.split("/"));
-		final Path output = this.repoRoot.resolve(target.split("/"));
-		if (input.equals(output)) {
-			final Path tmp = Path.getTmpDirOrFile("");
-			encrypt(source, tmp.toString(), encrypt);
-			input.delete();
-			tmp.toFile().renameTo(input.toFile());
+		if (!process(files, encrypt, null)) {
+			return null;
 		}
+		return target;
+	}
 
-		output.getParent().toFile().mkdirs();
-		final byte[] bufferIn = new byte[engine.getBlockSize()];
-		final byte[] bufferOut = new byte[engine.getBlockSize()];
-		final InputStream streamIn = this.io.openIn(input.toFile());
-		final OutputStream streamOut = this.io.openOut(output.toFile());
-		engine.init(encrypt, keyParam);
-		streamIn.registerProgressMonitor(this.io);
+	/**
+	 * Encrypts or decrypts several files at once, showing a progress of its
+	 * own.
+	 * 
+	 * @param files
+	 *            map of inputs to outputs, relative to the repository
+	 * @param encrypt
+	 *            encrypt else decrypt
+	 * @return <i>true</i> on success
+	 */
+	public final boolean encrypt(final Map<String, String> files,
+			boolean encrypt) {
 		if (encrypt) {
-			this.io.setProgressTitle("Encrypting " + output.getFilename());
+			this.io.startProgress("Encrypting", files.size());
 		} else {
-			this.io.setProgressTitle("Decrypting " + output.getFilename());
+			this.io.startProgress("Decrypting", files.size());
 		}
 		try {
-			while (true) {
-				final int read;
-				if ((read = streamIn.read(bufferIn)) < 0) {
-					break;
-				}
-				if ((read < bufferIn.length) && encrypt) {
-					for (int i = read; i < bufferIn.length; i++) {
-						bufferIn[i] = ' ';
-					}
-				}
-				engine.processBlock(bufferIn, 0, bufferOut, 0);
-				this.io.write(streamOut, bufferOut);
-			}
-			return target;
-		} catch (final IOException e) {
-			e.printStackTrace();
-			return null;
+			return process(files, encrypt, this.io);
 		} finally {
-			this.io.close(streamIn);
-			this.io.close(streamOut);
 			this.io.endProgress("");
 		}
 	}
 
+	/**
+	 * Encrypts or decrypts given files, reporting each written file to
+	 * <i>progress</i> if it is not <i>null</i>.
+	 */
+	private final boolean process(final Map<String, String> files,
+			boolean encrypt, final IOHandler progress) {
+		final AESPipeline pipeline = new AESPipeline(getKey(), this.taskPool,
+				progress);
+		final Map<File, File> paths = new LinkedHashMap<>();
+		for (final Map.Entry<String, String> file : files.entrySet()) {
+			final Path input = this.repoRoot.resolve(file.getKey().split("/"));
+			final Path output = this.repoRoot.resolve(file.getValue().split(
+					"/"));
+			output.getParent().toFile().mkdirs();
+			paths.put(input.toFile(), output.toFile());
+		}
+		try {
+			pipeline.process(paths, encrypt);
+			return true;
+		} catch (final IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	/**
+	 * @param source
+	 *            file in the repository to encrypt
+	 * @return the file the encrypted <i>source</i> is stored in
+	 */
+	public final static String encryptedPath(final String source) {
+		return "enc/" + source.substring(0, source.length() - 8) + ".abc";
+	}
+
 	/** */
 	@Override
 	public final List<Option> getOptions() {
@@ -761,15 +781,14 @@ public final class VersionControl implements Module {
 		sbHead.append(String
 				.format("new(+): %-3d deleted(-): %-3d modified(M): %-3d\n  renamed(->): %-3d copied(o-o): %-3d",
 						adds, dels, mods, renames, copies));
+		encodedCreated.addAll(encodedChanged);
+		if (!encodedCreated.isEmpty()) {
+			decrypt(reader, treeNew, encodedCreated);
+		}
 		reader.release();
 		treeParserOld.stopWalk();
 		treeParserNew.stopWalk();
 
-		for (final String created : encodedCreated) {
-			gitSession.checkout().addPath(created).setStartPoint(commitNew)
-					.call();
-			encrypt(created, created.substring(4), false);
-		}
 		for (final String deleted : encodedDeleted) {
 			this.repoRoot.resolve(deleted).delete();
 			this.repoRoot.resolve(deleted.substring(4)).delete();
@@ -778,6 +797,92 @@ public final class VersionControl implements Module {
 
 	}
 
+	/**
+	 * Decrypts given files of given tree. The encrypted files are read from
+	 * the object database, so they need not to be checked out.
+	 */
+	private final boolean decrypt(final ObjectReader reader,
+			final RevTree tree, final Set<String> paths) throws IOException {
+		final Map<File, ObjectId> objects = new LinkedHashMap<>();
+		final TreeWalk treeWalk = new TreeWalk(reader);
+		treeWalk.addTree(tree);
+		treeWalk.setRecursive(true);
+		treeWalk.setFilter(PathFilterGroup.createFromStrings(paths));
+		while (treeWalk.next()) {
+			final Path output = this.repoRoot.resolve(treeWalk
+					.getPathString().substring(4).split("/"));
+			output.getParent().toFile().mkdirs();
+			objects.put(output.toFile(), treeWalk.getObjectId(0));
+		}
+		treeWalk.release();
+		final AESPipeline pipeline = new AESPipeline(getKey(), this.taskPool,
+				this.io);
+		this.io.startProgress("Decrypting", objects.size());
+		try {
+			pipeline.processObjects(reader, objects, false);
+			return true;
+		} catch (final IOException e) {
+			e.printStackTrace();
+			return false;
+		} finally {
+			this.io.endProgress("");
+		}
+	}
+
+	private final byte[] getKey() {
+		final String savedKey = this.main.getConfigValue(Main.VC_SECTION,
+				VersionControl.AES_KEY, null);
+		if (savedKey != null) {
+			return SecretKeyPlugin.decode(savedKey);
+		}
+		final SecretKeyPlugin secretKeyPlugin = new SecretKeyPlugin();
+		this.io.handleGUIPlugin(secretKeyPlugin);
+		this.main.setConfigValue(Main.VC_SECTION, VersionControl.AES_KEY,
+				secretKeyPlugin.getValue());
+		this.main.flushConfig();
+		return secretKeyPlugin.getKey();
+	}
+
+	/**
+	 * Sets working tree and index of given paths to their state in given
+	 * commit. All paths existing in the commit are checked out at once, all
+	 * other paths are deleted and removed from the index by one edit.
+	 */
+	private final void checkoutPaths(final Git gitSession,
+			final ObjectReader reader, final RevCommit commit,
+			final Set<String> paths) throws IOException, GitAPIException {
+		final Set<String> deleted = new HashSet<>(paths);
+		final CheckoutCommand checkout = gitSession.checkout().setStartPoint(
+				commit);
+		final TreeWalk treeWalk = new TreeWalk(reader);
+		treeWalk.addTree(commit.getTree());
+		treeWalk.setRecursive(true);
+		treeWalk.setFilter(PathFilterGroup.createFromStrings(paths));
+		while (treeWalk.next()) {
+			if (deleted.remove(treeWalk.getPathString())) {
+				checkout.addPath(treeWalk.getPathString());
+			}
+		}
+		treeWalk.release();
+		if (deleted.size() < paths.size()) {
+			checkout.call();
+		}
+		if (deleted.isEmpty()) {
+			return;
+		}
+		final DirCache dirCache = gitSession.getRepository().lockDirCache();
+		try {
+			final DirCacheEditor editor = dirCache.editor();
+			for (final String path : deleted) {
+				this.repoRoot.resolve(path).delete();
+				editor.add(new DirCacheEditor.DeletePath(path));
+			}
+			editor.commit();
+		} finally {
+			dirCache.unlock();
+		}
+	}
+
 	private int executeNativeGit(final String... cmd) throws IOException,
 			InterruptedException {
 		final Process p = Runtime.getRuntime().exec(cmd, null,
@@ -1033,7 +1138,8 @@ public final class VersionControl implements Module {
 
 			int time = commitLocal.getCommitTime();
 			this.io.startProgress("Merging", time - commitRoot.getCommitTime());
-			final Set<String> merged = new HashSet<>();
+			// paths changed by own commits, set to their state in commitLocal
+			final Set<String> merged = new TreeSet<>();
 
 			commits.add(commitLocal);
 			boolean doCommit = false;
@@ -1056,38 +1162,19 @@ public final class VersionControl implements Module {
 							.setNewTree(treeParserNew)
 							.setShowNameAndStatusOnly(true).call();
 					for (final DiffEntry e : diffs) {
-						final String old = e.getOldPath();
-						final String add = e.getNewPath();
 						doCommit = true;
 						switch (e.getChangeType()) {
 						case RENAME:
-							if (merged.add(add)) {
-								gitSession.checkout()
-										.setStartPoint(commitLocal)
-										.addPath(add).call();
-							}
-							gitSession.add().addFilepattern(add).call();
-
-							if (merged.add(old)) {
-								this.repoRoot.resolve(old).delete();
-							}
-							gitSession.add().addFilepattern(old).call();
+							merged.add(e.getNewPath());
+							merged.add(e.getOldPath());
 							break;
 						case DELETE:
-							if (merged.add(old)) {
-								this.repoRoot.resolve(old).delete();
-							}
-							gitSession.rm().addFilepattern(old).call();
+							merged.add(e.getOldPath());
 							break;
 						case ADD:
 						case COPY:
 						case MODIFY:
-							if (merged.add(add)) {
-								gitSession.checkout()
-										.setStartPoint(commitLocal)
-										.addPath(add).call();
-							}
-							gitSession.add().addFilepattern(add).call();
+							merged.add(e.getNewPath());
 							break;
 						default:
 							break;
@@ -1103,6 +1190,9 @@ public final class VersionControl implements Module {
 				this.io.updateProgress(time - c.getCommitTime());
 				time = c.getCommitTime();
 			}
+			if (!merged.isEmpty()) {
+				checkoutPaths(gitSession, reader, commitLocal, merged);
+			}
 			reader.release();
 			treeParserOld.stopWalk();
 			treeParserNew.stopWalk();
@@ -1299,8 +1389,18 @@ public final class VersionControl implements Module {
 
 		boolean success = true;
 
-		final RevCommit commitRoot = CommitComparator.init(walk, this.io)
-				.getParent(commitLocal, commitRemote);
+		// add the fetched commits
+		final CommitGraph graph = new CommitGraph(StartupContainer
+				.getDatadirectory()
+				.resolve("commitGraph")
+				.resolve(
+						AtomicFileWriter.fileName(this.repoRoot.toFile()
+								.getAbsolutePath())));
+		if (graph.update(walk, commitLocal, commitRemote)) {
+			graph.store();
+		}
+		final RevCommit commitRoot = CommitComparator.init(walk, this.io,
+				graph).getParent(commitLocal, commitRemote);
 		if (commitRoot == null) {
 			historyRewritten(gitSession, commitLocal, commitRemote, walk);
 			diffString = null;
@@ -1,15 +1,13 @@
 package stone.modules.fileEditor;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.TreeMap;
 
 import stone.io.IOHandler;
+import stone.io.MappedInputStream;
 import stone.io.OutputStream;
 import stone.util.Path;
 
@@ -23,7 +21,7 @@ class AbcFile {
 		this.tracks = new TreeMap<>(tracks);
 	}
 
-	public static AbcFile readFile(final InputStream stream, final Console c) {
+	public static AbcFile readFile(final MappedInputStream stream, final Console c) {
 		AbcFile abcFile = null;
 		try {
 			abcFile = parseStream(stream, c);
@@ -36,8 +34,7 @@ class AbcFile {
 		return abcFile;
 	}
 
-	private static AbcFile parseStream(final InputStream in, final Console c) throws IOException {
-		final BufferedReader r = new BufferedReader(new InputStreamReader(in));
+	private static AbcFile parseStream(final MappedInputStream in, final Console c) throws IOException {
 		final Map<Integer, AbcTrack> tracks = new HashMap<>();
 		final StringBuilder header = new StringBuilder();
 
@@ -47,7 +44,7 @@ class AbcFile {
 		AbcTrack lastTrack = null;
 
 		while (true) {
-			String line = r.readLine();
+			String line = in.readLine();
 			if (line == null)
 				return new AbcFile(header, tracks);
 			line = line.trim();
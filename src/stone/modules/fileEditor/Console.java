@@ -17,11 +17,10 @@ import java.io.OutputStream;
 import java.util.Map;
 import java.util.Set;
 
-import javax.swing.JEditorPane;
 import javax.swing.JPanel;
-import javax.swing.JScrollBar;
 import javax.swing.JScrollPane;
 import javax.swing.JTextField;
+import javax.swing.JTextPane;
 
 import stone.io.GUIInterface;
 import stone.util.Debug;
@@ -35,10 +34,6 @@ import stone.util.Path;
  */
 public class Console {
 
-	private static final int MAX_OUTLINES_BUFFERED = 400;
-	private static final String BR = "<br/>";
-	private static final byte[] SP = "&nbsp;".getBytes();
-
 	private final OutputStream out;
 	private final CommandInterpreter ci;
 	private boolean firstOut;
@@ -184,11 +179,7 @@ public class Console {
 
 		try {
 			synchronized (out) {
-				if (firstOut) {
-					firstOut = false;
-					out.write('\r');
-					out.write('\r');
-				}
+				startOut();
 				Debug.print("%s", string);
 				out.write(string.getBytes());
 			}
@@ -238,91 +229,14 @@ public class Console {
 	}
 
 	static Console createConsoleGUI(final JPanel panel) {
-		final JEditorPane out = new JEditorPane();
+		final JTextPane out = new JTextPane();
 		final JScrollPane jscroll = new JScrollPane(out);
 		final JTextField in = new JTextField();
 		final Object endSignal = GUIInterface.Button.class;
 		final CommandInterpreter ci = new CommandInterpreter(endSignal);
 
 
-		final OutputStream outStream = new OutputStream() {
-
-			private int lines = 0;
-			private final StringBuilder sb = new StringBuilder();
-			private final JScrollBar vscroll = jscroll.getVerticalScrollBar();
-
-			@Override
-			public void write(int b) throws IOException {
-				switch (b) {
-				case ' ':
-					write(SP);
-					return;
-				case '\t':
-					int startOfLastLine = sb.lastIndexOf(BR);
-					int tabWidth = 4;
-					final String line;
-					if (startOfLastLine < 0) {
-						line = sb.toString().replaceAll("<.*>", "");
-					} else {
-						line = sb.substring(startOfLastLine + 5).replaceAll(
-								"<.*>", "");
-					}
-
-					int mod = line.length() % tabWidth;
-					while (mod-- > 0) {
-						write(' ');
-					}
-					return;
-				case '\n':
-					sb.append(BR);
-					if (++lines >= MAX_OUTLINES_BUFFERED) {
-						--lines;
-						String truncated = sb.substring(sb.indexOf(BR)
-								+ BR.length());
-						if (truncated.startsWith("</")) {
-							truncated = truncated.substring(truncated
-									.indexOf(BR) + BR.length());
-							--lines;
-						}
-						sb.setLength(0);
-						sb.append(truncated);
-					}
-
-					while (true)
-						try {
-							out.setText("<font face=\"Courier New\">"
-									+ sb.toString() + "</font>");
-							out.invalidate();
-							vscroll.invalidate();
-							out.validate();
-							vscroll.validate();
-							vscroll.setValue(vscroll.getMaximum());
-							break;
-						} catch (final Exception e) {
-							try {
-								Thread.sleep(5);
-							} catch (final Exception ie) {
-								Thread.currentThread().interrupt();
-								return;
-							}
-							continue;
-						}
-					return;
-				case '\r':
-					int index = sb.lastIndexOf(BR);
-					if (index < 0) {
-						sb.setLength(0);
-					} else {
-						sb.setLength(index);
-					}
-					return;
-				default:
-					sb.append((char) b);
-				}
-			}
-		};
-
-		out.setContentType("text/html");
+		final OutputStream outStream = new ConsoleOutput(out);
 
 		final Console c = new Console(ci, outStream);
 		final InputKeyListener l = c.generateKeyListener(in);
@@ -450,11 +364,23 @@ public class Console {
 				exit();
 			}
 		} else {
-			synchronized (out) {
-				out("<font color=red>");
-				out(string);
-				out("</font>");
+			try {
+				synchronized (out) {
+					startOut();
+					Debug.print("%s", string);
+					((ConsoleOutput) out).err(string);
+				}
+			} catch (final IOException e) {
+				exit();
 			}
 		}
 	}
+
+	private void startOut() throws IOException {
+		if (firstOut) {
+			firstOut = false;
+			out.write('\r');
+			out.write('\r');
+		}
+	}
 }
@@ -0,0 +1,228 @@
+package stone.modules.fileEditor;
+
+import java.awt.Color;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+
+import javax.swing.JTextPane;
+import javax.swing.Timer;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.StyledDocument;
+
+import stone.util.Debug;
+
+/**
+ * Output of the {@link Console} on the GUI. Written text is collected and
+ * appended to the document of the output pane on the event dispatch thread,
+ * at most {@value #FRAME_RATE} times per second. The document is never
+ * rendered as a whole again, and only its last {@value #MAX_LINES} lines are
+ * kept.
+ * <p>
+ * A '\r' erases the current line, a '\t' is expanded to spaces.
+ * </p>
+ *
+ * @author Nelphindal
+ */
+final class ConsoleOutput extends OutputStream {
+
+	private final static int MAX_LINES = 400;
+	private final static int FRAME_RATE = 25;
+	private final static int TAB_WIDTH = 4;
+
+	/**
+	 * Text to append in one style. A segment without text erases the current
+	 * line.
+	 */
+	private final static class Segment {
+		final StringBuilder text;
+		final boolean error;
+
+		@SuppressWarnings("hiding")
+		Segment(final StringBuilder text, boolean error) {
+			this.text = text;
+			this.error = error;
+		}
+	}
+
+	private final JTextPane pane;
+	private final StyledDocument doc;
+	private final SimpleAttributeSet normal = new SimpleAttributeSet();
+	private final SimpleAttributeSet error = new SimpleAttributeSet();
+	private final Timer timer;
+
+	// guarded by this
+	private final ArrayDeque<Segment> pending = new ArrayDeque<>();
+	private int pendingLines;
+	private boolean clear;
+	private boolean scheduled;
+	private int column;
+
+	/**
+	 * @param pane
+	 *            pane to display the output in
+	 */
+	@SuppressWarnings("hiding")
+	ConsoleOutput(final JTextPane pane) {
+		this.pane = pane;
+		this.doc = pane.getStyledDocument();
+		StyleConstants.setFontFamily(this.normal, "Courier New");
+		StyleConstants.setFontFamily(this.error, "Courier New");
+		StyleConstants.setForeground(this.error, Color.RED);
+		this.timer = new Timer(1000 / FRAME_RATE, new ActionListener() {
+
+			@Override
+			public final void actionPerformed(final ActionEvent e) {
+				render();
+			}
+		});
+		this.timer.setRepeats(false);
+	}
+
+	/**
+	 * Appends given text in the style for errors.
+	 *
+	 * @param text
+	 *            -
+	 */
+	final synchronized void err(final String text) {
+		for (int i = 0; i < text.length(); ++i) {
+			append(text.charAt(i), true);
+		}
+		schedule();
+	}
+
+	/**
+	 * Appends all written text to the document. Has to be called on the event
+	 * dispatch thread.
+	 */
+	private final void render() {
+		final Segment[] segments;
+		final boolean clearDoc;
+		synchronized (this) {
+			segments = this.pending.toArray(new Segment[this.pending.size()]);
+			clearDoc = this.clear;
+			this.pending.clear();
+			this.pendingLines = 0;
+			this.clear = false;
+			this.scheduled = false;
+		}
+		try {
+			if (clearDoc) {
+				this.doc.remove(0, this.doc.getLength());
+			}
+			for (final Segment segment : segments) {
+				if (segment.text == null) {
+					eraseLine();
+				} else {
+					this.doc.insertString(this.doc.getLength(),
+							segment.text.toString(), segment.error ? this.error
+									: this.normal);
+				}
+			}
+			final Element root = this.doc.getDefaultRootElement();
+			final int lines = root.getElementCount();
+			if (lines > MAX_LINES) {
+				this.doc.remove(0, root.getElement(lines - MAX_LINES - 1)
+						.getEndOffset());
+			}
+		} catch (final BadLocationException e) {
+			Debug.print("%s\n", e);
+		}
+		this.pane.setCaretPosition(this.doc.getLength());
+	}
+
+	@Override
+	public final synchronized void write(byte[] b, int off, int len) {
+		final String s = new String(b, off, len);
+		for (int i = 0; i < s.length(); ++i) {
+			append(s.charAt(i), false);
+		}
+		schedule();
+	}
+
+	@Override
+	public final synchronized void write(int b) {
+		append((char) (0xff & b), false);
+		schedule();
+	}
+
+	private final void append(char c, boolean isError) {
+		switch (c) {
+		case '\t':
+			do {
+				append(' ', isError);
+			} while ((this.column % TAB_WIDTH) != 0);
+			return;
+		case '\r':
+			this.pending.add(new Segment(null, isError));
+			this.column = 0;
+			return;
+		case '\n':
+			this.column = 0;
+			text(isError).append(c);
+			if (++this.pendingLines > MAX_LINES) {
+				dropLine();
+			}
+			return;
+		default:
+			++this.column;
+			text(isError).append(c);
+		}
+	}
+
+	/**
+	 * Drops the oldest pending line, which would be removed from the document
+	 * anyway. The document is cleared instead.
+	 */
+	private final void dropLine() {
+		while (true) {
+			final Segment first = this.pending.peek();
+			if (first.text == null) {
+				this.pending.poll();
+				continue;
+			}
+			final int end = first.text.indexOf("\n");
+			if (end < 0) {
+				this.pending.poll();
+				continue;
+			}
+			if (end == (first.text.length() - 1)) {
+				this.pending.poll();
+			} else {
+				first.text.delete(0, end + 1);
+			}
+			break;
+		}
+		--this.pendingLines;
+		this.clear = true;
+	}
+
+	private final void eraseLine() throws BadLocationException {
+		final Element root = this.doc.getDefaultRootElement();
+		final int start = root.getElement(root.getElementCount() - 1)
+				.getStartOffset();
+		this.doc.remove(start, this.doc.getLength() - start);
+	}
+
+	private final void schedule() {
+		if (!this.scheduled) {
+			this.scheduled = true;
+			this.timer.start();
+		}
+	}
+
+	private final StringBuilder text(boolean isError) {
+		final Segment last = this.pending.peekLast();
+		if ((last != null) && (last.text != null) && (last.error == isError)) {
+			return last.text;
+		}
+		final Segment segment = new Segment(new StringBuilder(), isError);
+		this.pending.add(segment);
+		return segment.text;
+	}
+}
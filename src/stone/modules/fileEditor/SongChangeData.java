@@ -14,11 +14,12 @@ import stone.MasterThread;
 import stone.modules.fileEditor.AbcConstants;
 import stone.io.ExceptionHandle;
 import stone.io.IOHandler;
-import stone.io.InputStream;
+import stone.io.MappedInputStream;
 import stone.io.OutputStream;
 import stone.modules.Main;
 import stone.modules.songData.SongDataEntry;
 import stone.util.Debug;
+import stone.util.FileSystem;
 import stone.util.Path;
 import stone.util.Time;
 
@@ -421,27 +422,30 @@ public class SongChangeData {
 	}
 
 	private final String calculateDuration(final IOHandler io) {
-		final InputStream in = io.openIn(this.file.toFile());
-		String line;
+		// the song may be rewritten afterwards, a mapping would lock it
+		final MappedInputStream in = io.openMapped(this.file.toFile(),
+				FileSystem.UTF8, false);
+		CharSequence line;
 		double length = 0;
 
 		final AbcTempoParams tempo = new AbcTempoParams();
 
 		try {
 			double beats = 0;
-			while ((line = in.readLine()) != null) {
-				if (line.isEmpty() || line.startsWith("%")) {
+			while ((line = in.nextLine()) != null) {
+				if ((line.length() == 0) || (line.charAt(0) == '%')) {
 					continue;
 				} else if ((line.length() > 2) && (line.charAt(1) == ':')) {
-					switch (line.charAt(0)) {
+					final String header = line.toString();
+					switch (header.charAt(0)) {
 					case 'X':
 						length = Math.max(length, tempo.toLength());
 						beats = 0;
 						tempo.reset();
 						break;
 					case 'Q':
-						final int posQ = Math.max(2, line.indexOf('=') + 1);
-						tempo.tempo = Integer.parseInt(line.substring(posQ)
+						final int posQ = Math.max(2, header.indexOf('=') + 1);
+						tempo.tempo = Integer.parseInt(header.substring(posQ)
 								.trim());
 						if (posQ == 2) {
 							break;
@@ -451,7 +455,7 @@ public class SongChangeData {
 						int n = 0;
 						int d = 0;
 						boolean readN = true;
-						for (final char c : line.substring(2).trim()
+						for (final char c : header.substring(2).trim()
 								.toCharArray()) {
 							if (c == '=') {
 								break;
@@ -474,7 +478,8 @@ public class SongChangeData {
 				boolean readN = true, chordLength = false;
 				boolean comment = false, chord = false;
 				double n = 0, d = -1;
-				for (final char c : line.toCharArray()) {
+				for (int i = 0; i < line.length(); ++i) {
+					final char c = line.charAt(i);
 					if (comment) {
 						break;
 					} else if (ignore) {
@@ -1019,7 +1024,9 @@ public class SongChangeData {
 	private final boolean writeChunks(final IOHandler io,
 			final Path headerChunk, final Map<Integer, Path> partsToChunk,
 			final NameScheme scheme) {
-		final InputStream in = io.openIn(this.file.toFile());
+		// the song is replaced afterwards, a mapping would lock it
+		final MappedInputStream in = io.openMapped(this.file.toFile(),
+				FileSystem.UTF8, false);
 		final Path tmp = headerChunk.getParent();
 		OutputStream out = io.openOut(headerChunk.toFile());
 		try {
@@ -1,7 +1,6 @@
 package stone.modules.fileEditor;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.TreeSet;
@@ -11,6 +10,7 @@ import stone.MasterThread;
 import stone.StartupContainer;
 import stone.io.ExceptionHandle;
 import stone.io.IOHandler;
+import stone.io.MappedInputStream;
 import stone.modules.SongData;
 import stone.util.Debug;
 import stone.util.Path;
@@ -57,8 +57,9 @@ public class SongRewrite {
 								return;
 							Debug.print("Processing %s in background\n",
 									selected.relativize(root));
-							final InputStream stream = io.openIn(selected
-									.toFile());
+							final MappedInputStream stream = io.openMapped(
+									selected.toFile(),
+									stone.util.FileSystem.DEFAULT_CHARSET);
 							master.addTask(new Runnable() {
 
 								@Override
@@ -51,8 +51,16 @@ final class Duration {
 						delta - this.lastChange.getKey().intValue());
 	}
 
-	final void progress(final MidiEvent event) {
-		this.tmp += event.delta;
+	/**
+	 * Returns all tempo changes without changing the state of this instance.
+	 * A tempo has to be set at tick 0, any call of {@link #getMinutes(int)}
+	 * creates a default one if the midi does not.
+	 *
+	 * @return the tempo changes ordered by their position
+	 */
+	final TempoChangeState[] getTempoChanges() {
+		return this.tempoIntervals.values().toArray(
+				new TempoChangeState[this.tempoIntervals.size()]);
 	}
 
 	final void reset() {
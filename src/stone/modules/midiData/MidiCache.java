@@ -0,0 +1,202 @@
+package stone.modules.midiData;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import stone.util.AtomicFileWriter;
+import stone.util.Debug;
+import stone.util.Path;
+
+/**
+ * Cache of parsed midi files. Each entry holds the decoded notes, titles,
+ * channels, instruments and the numbering of the tracks of one midi. It is
+ * valid as long size and modification time of the midi are unchanged. The
+ * least recently used entries are deleted when the cache grows beyond
+ * {@link #MAX_SIZE}.
+ *
+ * @author Nelphindal
+ */
+final class MidiCache {
+
+	private final static int MAGIC = 0x4d434302;
+	private final static long MAX_SIZE = 64 << 20;
+	private final static String SUFFIX = ".midiCache";
+
+	private final File dir;
+
+	/**
+	 * @param dir
+	 *            directory to store the entries in
+	 */
+	MidiCache(final Path dir) {
+		this.dir = dir.toFile();
+	}
+
+	/**
+	 * Fills given parser with the data cached for given midi.
+	 *
+	 * @param parser
+	 *            parser to fill
+	 * @param midi
+	 *            midi to look up
+	 * @return <i>true</i> if a valid entry has been found and read
+	 */
+	final boolean load(final MidiParser parser, final Path midi) {
+		final File entry = entry(midi);
+		if (!entry.exists()) {
+			return false;
+		}
+		final File midiFile = midi.toFile();
+		try (final DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new GZIPInputStream(
+						new FileInputStream(entry))))) {
+			if ((in.readInt() != MAGIC)
+					|| !in.readUTF().equals(midiFile.getAbsolutePath())
+					|| (in.readLong() != midiFile.length())
+					|| (in.readLong() != midiFile.lastModified())) {
+				return false;
+			}
+			parser.duration = in.readDouble();
+			for (int i = in.readInt(); i > 0; --i) {
+				parser.titles.put(in.readInt(), in.readUTF());
+			}
+			for (int i = in.readInt(); i > 0; --i) {
+				parser.renumberMap.put(in.readInt(), in.readInt());
+			}
+			for (int i = in.readInt(); i > 0; --i) {
+				parser.tracksToChannel.put(in.readInt(), in.readByte());
+			}
+			for (int i = in.readInt(); i > 0; --i) {
+				parser.channelsToInstrument.put(in.readByte(), in.readByte());
+			}
+			for (int i = in.readInt(); i > 0; --i) {
+				// only the ids of the tracks are used after decoding
+				parser.eventsEncoded.put(in.readInt(), new TrackEvents());
+			}
+			parser.eventsDecoded.read(in);
+		} catch (final IOException e) {
+			Debug.print("Failed to read %s: %s\n", entry, e.getMessage());
+			parser.duration = 0;
+			parser.titles.clear();
+			parser.renumberMap.clear();
+			parser.tracksToChannel.clear();
+			parser.channelsToInstrument.clear();
+			parser.eventsEncoded.clear();
+			parser.eventsDecoded = new MidiMap(parser);
+			entry.delete();
+			return false;
+		}
+		entry.setLastModified(System.currentTimeMillis());
+		return true;
+	}
+
+	/**
+	 * Stores the data of given parser, which has been parsed from given midi.
+	 *
+	 * @param parser
+	 *            parser holding the data to store
+	 * @param midi
+	 *            the parsed midi
+	 */
+	final void store(final MidiParser parser, final Path midi) {
+		final File midiFile = midi.toFile();
+		final boolean written = new AtomicFileWriter(true) {
+
+			@Override
+			protected final void write(final DataOutputStream out)
+					throws IOException {
+				out.writeInt(MAGIC);
+				out.writeUTF(midiFile.getAbsolutePath());
+				out.writeLong(midiFile.length());
+				out.writeLong(midiFile.lastModified());
+				out.writeDouble(parser.duration);
+				out.writeInt(parser.titles.size());
+				for (final Map.Entry<Integer, String> e : parser.titles
+						.entrySet()) {
+					out.writeInt(e.getKey());
+					out.writeUTF(e.getValue());
+				}
+				out.writeInt(parser.renumberMap.size());
+				for (final Map.Entry<Integer, Integer> e : parser.renumberMap
+						.entrySet()) {
+					out.writeInt(e.getKey());
+					out.writeInt(e.getValue());
+				}
+				out.writeInt(parser.tracksToChannel.size());
+				for (final Map.Entry<Integer, Byte> e : parser.tracksToChannel
+						.entrySet()) {
+					out.writeInt(e.getKey());
+					out.writeByte(e.getValue());
+				}
+				out.writeInt(parser.channelsToInstrument.size());
+				for (final Map.Entry<Byte, Byte> e : parser.channelsToInstrument
+						.entrySet()) {
+					out.writeByte(e.getKey());
+					out.writeByte(e.getValue());
+				}
+				out.writeInt(parser.eventsEncoded.size());
+				for (final Integer track : parser.eventsEncoded.keySet()) {
+					out.writeInt(track);
+				}
+				parser.eventsDecoded.write(out);
+			}
+		}.writeTo(entry(midi));
+		if (written) {
+			evict();
+		}
+	}
+
+	private final File entry(final Path midi) {
+		return new File(this.dir, AtomicFileWriter.fileName(midi.toFile()
+				.getAbsolutePath()) + SUFFIX);
+	}
+
+	/**
+	 * Deletes the least recently used entries until the size of the cache is
+	 * below {@link #MAX_SIZE}.
+	 */
+	private final void evict() {
+		final File[] entries = this.dir.listFiles();
+		if (entries == null) {
+			return;
+		}
+		long size = 0;
+		for (final File entry : entries) {
+			size += entry.length();
+		}
+		if (size <= MAX_SIZE) {
+			return;
+		}
+		final long[] lastUsed = new long[entries.length];
+		final Integer[] order = new Integer[entries.length];
+		for (int i = 0; i < entries.length; ++i) {
+			lastUsed[i] = entries[i].lastModified();
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+
+			@Override
+			public final int compare(final Integer o1, final Integer o2) {
+				return Long.compare(lastUsed[o1], lastUsed[o2]);
+			}
+		});
+		for (final Integer i : order) {
+			if (size <= MAX_SIZE) {
+				break;
+			}
+			final long length = entries[i].length();
+			if (entries[i].delete()) {
+				size -= length;
+				Debug.print("Evicted %s from midi cache\n", entries[i]);
+			}
+		}
+	}
+}
@@ -4,20 +4,25 @@ import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.Graphics;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.TreeMap;
 
 import javax.swing.JPanel;
 
 
 /**
- * A Map holding all decoded notes.
+ * A Map holding all decoded notes. The notes are stored in primitive columns,
+ * which are sorted by start once all notes have been added by {@link #build()}.
+ * A built map is immutable and may be shared by several threads. Instances of
+ * {@link Note} are only created on queries.
  * 
  * @author Nelphindal
  */
@@ -127,14 +132,34 @@ public class MidiMap {
 		return map;
 	}
 
-	private final static Color getColor(final Note note) {
-		return MidiMap.vMap.floorEntry(note.volumne).getValue()
-				.getColor(note.volumne);
+	private final static Color getColor(int volumne) {
+		return MidiMap.vMap.floorEntry(volumne).getValue().getColor(volumne);
 	}
 
-	private final Set<Note> notes = new HashSet<>();
+	private final static double[] permute(final double[] column,
+			final int[] order) {
+		final double[] sorted = new double[order.length];
+		for (int i = 0; i < order.length; ++i) {
+			sorted[i] = column[order[i]];
+		}
+		return sorted;
+	}
+
+	private final static int[] permute(final int[] column, final int[] order) {
+		final int[] sorted = new int[order.length];
+		for (int i = 0; i < order.length; ++i) {
+			sorted[i] = column[order[i]];
+		}
+		return sorted;
+	}
 
-	private final Map<Double, Map<Integer, List<Note>>> timeToTracksMap = new HashMap<>();
+	private int[] keys = new int[0x100];
+	private int[] volumnes = new int[0x100];
+	private int[] tracks = new int[0x100];
+	private double[] starts = new double[0x100];
+	private double[] ends = new double[0x100];
+	private int size;
+	private boolean built;
 
 	private final Dimension d = new Dimension();
 	private final int scale = 480; // 16th note at 200 bpm
@@ -146,12 +171,6 @@ public class MidiMap {
 
 	private final int NOTE_RANGE = MidiMap.NOTE_TOP - MidiMap.NOTE_BOT;
 
-	private MidiMap(final MidiMap clone) {
-		this.parser = clone.parser;
-		this.timeToTracksMap.putAll(clone.timeToTracksMap);
-		this.notes.addAll(clone.notes);
-	}
-
 	MidiMap(@SuppressWarnings("hiding") final MidiParser parser) {
 		this.parser = parser;
 	}
@@ -169,48 +188,28 @@ public class MidiMap {
 	 *            -
 	 * @param volumne
 	 *            -
+	 * @throws IllegalStateException
+	 *             if this map has been built already
 	 */
 	public final void addNote(int track, int key, double start, double end,
 			int volumne) {
-		final Note note = new Note(key, start, end, volumne, track);
-		final Map<Integer, List<Note>> mapTrack = this.timeToTracksMap
-				.get(start);
-		final List<Note> listTrack;
-		this.notes.add(note);
-
-		if (mapTrack == null) {
-			final Map<Integer, List<Note>> map = new HashMap<>();
-			listTrack = new ArrayList<>();
-			map.put(track, listTrack);
-			this.timeToTracksMap.put(start, map);
-		} else {
-			final List<Note> listTrack_tmp = mapTrack.get(track);
-			if (listTrack_tmp == null) {
-				listTrack = new ArrayList<>();
-				mapTrack.put(track, listTrack);
-			} else {
-				listTrack = listTrack_tmp;
-			}
+		if (this.built) {
+			throw new IllegalStateException("MidiMap has been built already");
 		}
-
-		listTrack.add(note);
-	}
-
-	/**
-	 * Clears this map.
-	 */
-	public final void clear() {
-		this.timeToTracksMap.clear();
-		this.notes.clear();
-	}
-
-	/**
-	 * Creates a shadowed copy of this map. Adding Notes before cleaning either
-	 * copy or this instance will effect both instances.
-	 */
-	@Override
-	public MidiMap clone() {
-		return new MidiMap(this);
+		if (this.size == this.keys.length) {
+			final int capacity = this.size << 1;
+			this.keys = Arrays.copyOf(this.keys, capacity);
+			this.volumnes = Arrays.copyOf(this.volumnes, capacity);
+			this.tracks = Arrays.copyOf(this.tracks, capacity);
+			this.starts = Arrays.copyOf(this.starts, capacity);
+			this.ends = Arrays.copyOf(this.ends, capacity);
+		}
+		this.keys[this.size] = key;
+		this.volumnes[this.size] = volumne;
+		this.tracks[this.size] = track;
+		this.starts[this.size] = start;
+		this.ends[this.size] = end;
+		++this.size;
 	}
 
 	/**
@@ -220,14 +219,20 @@ public class MidiMap {
 	 *            -
 	 * @param time
 	 *            -
-	 * @return a list of notes.
+	 * @return a list of notes, or <i>null</i> if there is none.
 	 */
 	public final List<Note> get(int id, double time) {
-		final Map<Integer, List<Note>> map = this.timeToTracksMap.get(time);
-		if (map == null) {
-			return null;
+		List<Note> list = null;
+		for (int i = indexOf(time); (i < this.size)
+				&& (this.starts[i] == time); ++i) {
+			if (this.tracks[i] == id) {
+				if (list == null) {
+					list = new ArrayList<>();
+				}
+				list.add(note(i));
+			}
 		}
-		return map.get(id);
+		return list;
 	}
 
 	/**
@@ -235,10 +240,44 @@ public class MidiMap {
 	 * 
 	 * @param time
 	 *            -
-	 * @return a map of notes. Index is the track where the notes are played.
+	 * @return a map of notes, or <i>null</i> if there is none. Index is the
+	 *         track where the notes are played.
 	 */
 	public final Map<Integer, List<Note>> getNotes(double time) {
-		return this.timeToTracksMap.get(time);
+		Map<Integer, List<Note>> map = null;
+		for (int i = indexOf(time); (i < this.size)
+				&& (this.starts[i] == time); ++i) {
+			if (map == null) {
+				map = new HashMap<>();
+			}
+			List<Note> list = map.get(this.tracks[i]);
+			if (list == null) {
+				list = new ArrayList<>();
+				map.put(this.tracks[i], list);
+			}
+			list.add(note(i));
+		}
+		return map;
+	}
+
+	/**
+	 * Gets all notes which started to play within given range, ordered by
+	 * their start.
+	 * 
+	 * @param from
+	 *            start of the range, inclusive
+	 * @param to
+	 *            end of the range, exclusive
+	 * @return a list of notes.
+	 */
+	public final List<Note> getNotes(double from, double to) {
+		final int first = indexOf(from);
+		final int last = indexOf(to);
+		final List<Note> list = new ArrayList<>(Math.max(0, last - first));
+		for (int i = first; i < last; ++i) {
+			list.add(note(i));
+		}
+		return list;
 	}
 
 	/**
@@ -306,21 +345,22 @@ public class MidiMap {
 		final int scale_ = getScale();
 
 		// draw notes
-		for (final Note note : this.notes) {
-			final int x0 = (int) (note.start * scale_);
-			final int x1 = (int) (note.end * scale_);
+		for (int i = 0; i < this.size; ++i) {
+			final int key = this.keys[i];
+			final int track = this.tracks[i];
+			final int x0 = (int) (this.starts[i] * scale_);
+			final int x1 = (int) (this.ends[i] * scale_);
 			final int y;
-			if (note.key < MidiMap.NOTE_BOT) {
-				y = (note.track * heightPerSong) - 1;
+			if (key < MidiMap.NOTE_BOT) {
+				y = (track * heightPerSong) - 1;
 				g0.setColor(Color.RED);
-			} else if (note.key >= MidiMap.NOTE_TOP) {
-				y = (note.track * heightPerSong)
+			} else if (key >= MidiMap.NOTE_TOP) {
+				y = (track * heightPerSong)
 						- (MidiMap.NOTE_TOP - MidiMap.NOTE_BOT);
 				g0.setColor(Color.RED);
 			} else {
-				y = (note.track * heightPerSong)
-						- (note.key - MidiMap.NOTE_BOT);
-				g0.setColor(MidiMap.getColor(note));
+				y = (track * heightPerSong) - (key - MidiMap.NOTE_BOT);
+				g0.setColor(MidiMap.getColor(this.volumnes[i]));
 
 			}
 			g0.drawLine(x0, y, x1, y);
@@ -357,6 +397,92 @@ public class MidiMap {
 		return "MidiState";
 	}
 
+	/**
+	 * @return the number of notes in this map
+	 */
+	public final int size() {
+		return this.size;
+	}
+
+	/**
+	 * Sorts the notes by start and makes this map immutable. Notes starting at
+	 * the same time keep the order they have been added in.
+	 */
+	final void build() {
+		if (this.built) {
+			return;
+		}
+		final int[] order = sortByStart();
+		this.keys = MidiMap.permute(this.keys, order);
+		this.volumnes = MidiMap.permute(this.volumnes, order);
+		this.tracks = MidiMap.permute(this.tracks, order);
+		this.starts = MidiMap.permute(this.starts, order);
+		this.ends = MidiMap.permute(this.ends, order);
+		this.built = true;
+	}
+
+	/**
+	 * Reads all notes written by {@link #write(DataOutputStream)} and builds
+	 * this map.
+	 * 
+	 * @param in
+	 *            stream to read from
+	 * @throws IOException
+	 *             if reading fails
+	 */
+	final void read(final DataInputStream in) throws IOException {
+		final int n = in.readInt();
+		this.keys = new int[n];
+		this.volumnes = new int[n];
+		this.tracks = new int[n];
+		this.starts = new double[n];
+		this.ends = new double[n];
+		for (int i = 0; i < n; ++i) {
+			this.keys[i] = in.readByte();
+		}
+		for (int i = 0; i < n; ++i) {
+			this.volumnes[i] = in.readUnsignedByte();
+		}
+		for (int i = 0; i < n; ++i) {
+			this.tracks[i] = in.readInt();
+		}
+		for (int i = 0; i < n; ++i) {
+			this.starts[i] = in.readDouble();
+		}
+		for (int i = 0; i < n; ++i) {
+			this.ends[i] = in.readDouble();
+		}
+		this.size = n;
+		this.built = true;
+	}
+
+	/**
+	 * Writes all notes column by column. This map has to be built.
+	 * 
+	 * @param out
+	 *            stream to write to
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	final void write(final DataOutputStream out) throws IOException {
+		out.writeInt(this.size);
+		for (int i = 0; i < this.size; ++i) {
+			out.writeByte(this.keys[i]);
+		}
+		for (int i = 0; i < this.size; ++i) {
+			out.writeByte(this.volumnes[i]);
+		}
+		for (int i = 0; i < this.size; ++i) {
+			out.writeInt(this.tracks[i]);
+		}
+		for (int i = 0; i < this.size; ++i) {
+			out.writeDouble(this.starts[i]);
+		}
+		for (int i = 0; i < this.size; ++i) {
+			out.writeDouble(this.ends[i]);
+		}
+	}
+
 	private final int getScale() {
 		final int scale_;
 		synchronized (this) {
@@ -365,4 +491,67 @@ public class MidiMap {
 		return scale_;
 	}
 
+	/**
+	 * @return the index of the first note starting at or after given time
+	 */
+	private final int indexOf(double time) {
+		int lo = 0;
+		int hi = this.size;
+		while (lo < hi) {
+			final int mid = (lo + hi) >>> 1;
+			if (this.starts[mid] < time) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	private final Note note(int i) {
+		return new Note(this.keys[i], this.starts[i], this.ends[i],
+				this.volumnes[i], this.tracks[i]);
+	}
+
+	/**
+	 * Merge sort of the indices of all notes by start. The notes of each track
+	 * are added in order, so only few runs are merged.
+	 * 
+	 * @return the sorted indices
+	 */
+	private final int[] sortByStart() {
+		int[] order = new int[this.size];
+		int[] tmp = new int[this.size];
+		for (int i = 0; i < this.size; ++i) {
+			order[i] = i;
+		}
+		for (int width = 1; width < this.size; width <<= 1) {
+			for (int lo = 0; lo < this.size; lo += width << 1) {
+				final int mid = Math.min(lo + width, this.size);
+				final int hi = Math.min(mid + width, this.size);
+				int i = lo;
+				int j = mid;
+				int k = lo;
+				if ((mid == hi)
+						|| (this.starts[order[mid - 1]] <= this.starts[order[mid]])) {
+					// already in order
+					System.arraycopy(order, lo, tmp, lo, hi - lo);
+					continue;
+				}
+				while ((i < mid) && (j < hi)) {
+					if (this.starts[order[j]] < this.starts[order[i]]) {
+						tmp[k++] = order[j++];
+					} else {
+						tmp[k++] = order[i++];
+					}
+				}
+				System.arraycopy(order, i, tmp, k, mid - i);
+				System.arraycopy(order, j, tmp, k + (mid - i), hi - j);
+			}
+			final int[] swap = order;
+			order = tmp;
+			tmp = swap;
+		}
+		return order;
+	}
 }
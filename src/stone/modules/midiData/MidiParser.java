@@ -2,12 +2,7 @@ package stone.modules.midiData;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.util.ArrayDeque;
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
@@ -29,7 +24,7 @@ import stone.util.Path;
  */
 public abstract class MidiParser {
 
-	private final class InvalidMidiTrackHeader extends ParsingException {
+	final static class InvalidMidiTrackHeader extends ParsingException {
 
 		/** */
 		private static final long serialVersionUID = 1L;
@@ -44,494 +39,74 @@ public abstract class MidiParser {
 		}
 	}
 
-	private final class MissingBytesAtEOT extends ParsingException {
+	final static class InvalidStatus extends ParsingException {
 
 		/** */
 		private static final long serialVersionUID = 1L;
 
-		public MissingBytesAtEOT() {
+		private final int status;
+
+		public InvalidStatus(int status) {
+			this.status = status;
 		}
 
 
 		@Override
 		public final String toString() {
-			return "End of track signaled, but header said its longer: "
-					+ MidiParser.this.trackLen + " bytes left";
+			return String.format("Invalid status byte 0x%02x", this.status);
 		}
 	}
 
-	private final class NoEOT extends ParsingException {
+	final static class MissingBytesAtEOT extends ParsingException {
 
 		/** */
 		private static final long serialVersionUID = 1L;
 
-		public NoEOT() {
-		}
-
-
-		@Override
-		public final String toString() {
-			return "Expected end of track (0xff 2f00)";
-		}
-
-	}
-
-	private abstract class ParseState {
-
-		protected ParseState() {
-			MidiParser.instancesOfParseState.add(this);
-			reset();
-		}
-
-		abstract ParseState getNext(byte read) throws ParsingException;
-
-		void parse(byte read) throws ParsingException {
-			if (MidiParser.this.trackLen-- <= 0) {
-				throw new NoEOT();
-			}
-			MidiParser.this.state = getNext(read);
-		}
-
-		abstract void reset();
-	}
-
-	private final class ParseState_Delta extends ParseState {
-
-		int delta;
-
-		public ParseState_Delta() {
-		}
-
-		@Override
-		final ParseState getNext(byte read) {
-			this.delta <<= 7;
-			this.delta += 0x7f & read;
-			if ((read & 0x80) != 0) {
-				return this;
-			}
-			return MidiParser.this.TYPE;
-		}
-
-		@Override
-		final void reset() {
-			this.delta = 0;
-		}
-	}
-
-	private final class ParseState_EOT extends ParseState {
-
-		public ParseState_EOT() {
-		}
-
-		@Override
-		final ParseState getNext(byte read) throws ParsingException {
-			if (read != 0) {
-				return null;
-			}
-			if (MidiParser.this.trackLen != 0) {
-				throw new MissingBytesAtEOT();
-			}
-			if (MidiParser.this.activeChannel >= 0) {
-				MidiParser.this.tracksToChannel.put(
-						MidiParser.this.activeTrack,
-						(byte) (0xff & MidiParser.this.activeChannel));
-			}
-			++MidiParser.this.activeTrack;
-			MidiParser.this.activeChannel = -1;
-			return MidiParser.this.HEADER;
-		}
-
-		@Override
-		final void reset() {
-			// nothing to reste
-		}
-
-	}
-
-	private final class ParseState_Header extends ParseState {
-
-		ParseState_Header() {
-		}
-
-		@Override
-		final ParseState getNext(byte read)
-				throws UnsupportedOperationException {
-			throw new UnsupportedOperationException();
-		}
-
-		@Override
-		final void parse(byte read) throws ParsingException {
-			MidiParser.this.bytes.add(read);
-			if (MidiParser.this.bytes.size() == 8) {
-				int first4Bytes = 0xff & MidiParser.this.bytes.remove();
-				for (int i = 1; i < 4; i++) {
-					first4Bytes <<= 8;
-					first4Bytes += 0xff & MidiParser.this.bytes.remove();
-				}
-				if (first4Bytes != MidiParser.TRACK_HEADER_INT) {
-					throw new InvalidMidiTrackHeader();
-				}
-				MidiParser.this.trackLen = 0xff & MidiParser.this.bytes
-						.remove();
-				for (int i = 1; i < 4; i++) {
-					MidiParser.this.trackLen <<= 8;
-					MidiParser.this.trackLen += 0xff & MidiParser.this.bytes
-							.remove();
-				}
-				MidiParser.this.state = MidiParser.this.DELTA;
-				MidiParser.this.eventsEncoded.put(MidiParser.this.activeTrack,
-						new ArrayList<MidiEvent>());
-			}
-		}
-
-		@Override
-		final void reset() {
-			MidiParser.this.trackLen = 0;
-		}
-	}
-
-	private final class ParseState_Meta extends ParseState {
-
-		public ParseState_Meta() {
-		}
-
-
-		@Override
-		final ParseState getNext(byte read) {
-			switch (read) {
-			// case 0x01:
-			// return TEXT;
-			// case 0x02:
-			// return COPYRIGHT;
-			case 0x03:
-				return MidiParser.this.NAME;
-				// case 0x04:
-				// return INSTRUMENT;
-			case 0x20:
-				return MidiParser.this.CHANNEL;
-				// case 0x21:
-				// return PORT;
-			case 0x2f:
-				return MidiParser.this.EOT;
-			case 0x51:
-				return MidiParser.this.TEMPO;
-			case 0x58:
-				return MidiParser.this.TIME;
-				// case 0x59:
-				// return KEY_SIG;
-			default:
-				return MidiParser.this.DISCARD_N;
-			}
-		}
-
-		@Override
-		final void reset() {
-			// nothing to reste
-		}
-	}
-
-	private final class ParseState_NoteOff extends ParseState {
-
-		int k;
-		int v;
-		int channel;
-
-		public ParseState_NoteOff() {
-		}
-
-		@Override
-		final ParseState getNext(byte read) {
-			if (this.k < 0) {
-				this.k = 0xff & read;
-				return this;
-			} else if (this.v < 0) {
-				this.v = 0xff & read;
-				if (MidiParser.this.activeChannel >= 0) {
-					this.channel = MidiParser.this.activeChannel;
-				}
-				MidiParser.this.lastEvent = new NoteOffEvent((byte) this.k,
-						(byte) this.v, (byte) this.channel,
-						MidiParser.this.DELTA.delta, MidiParser.this.format);
-				return MidiParser.this.DELTA;
-			}
-			return null;
-		}
-
-		@Override
-		final void reset() {
-			this.k = -1;
-			this.v = -1;
-			this.channel = -1;
-		}
-	}
-
-	private final class ParseState_NoteOn extends ParseState {
-
-		int k;
-		int v;
-		int channel;
-
-		public ParseState_NoteOn() {
-		}
-
-
-		@Override
-		final ParseState getNext(byte read) {
-			if (MidiParser.this.activeChannel == -1) {
-				MidiParser.this.activeChannel = this.channel;
-			} else if (MidiParser.this.activeChannel != this.channel) {
-				MidiParser.this.activeChannel = -2;
-			}
-			if (this.k < 0) {
-				this.k = 0xff & read;
-				return this;
-			} else if (this.v < 0) {
-				this.v = 0xff & read;
-				if (this.v == 0) {
-					MidiParser.this.lastEvent = new NoteOffEvent((byte) this.k,
-							(byte) this.v, (byte) this.channel,
-							MidiParser.this.DELTA.delta, MidiParser.this.format);
-				} else {
-					MidiParser.this.lastEvent = new NoteOnEvent((byte) this.k,
-							(byte) this.v, (byte) this.channel,
-							MidiParser.this.DELTA.delta, MidiParser.this.format);
-				}
-				return MidiParser.this.DELTA;
-			}
-			return null;
-		}
-
-		@Override
-		final void reset() {
-			this.k = -1;
-			this.v = -1;
-			this.channel = -1;
-		}
-	}
-
-	private final class ParseState_ProgramChange extends ParseState {
+		private final int bytesLeft;
 
-		byte channel;
-
-		public ParseState_ProgramChange() {
+		public MissingBytesAtEOT(int bytesLeft) {
+			this.bytesLeft = bytesLeft;
 		}
 
 
 		@Override
-		final ParseState getNext(byte read) {
-			MidiParser.this.channelsToInstrument.put(this.channel, read);
-			return MidiParser.this.DELTA;
-		}
-
-		@Override
-		final void reset() {
-			this.channel = 0;
+		public final String toString() {
+			return "End of track signaled, but header said its longer: "
+					+ this.bytesLeft + " bytes left";
 		}
 	}
 
-	private abstract class ParseState_ReadN extends ParseState {
-		int len;
-		private boolean check, byteToFollow;
-		private final boolean firstByteIsLen;
-
-		ParseState_ReadN() {
-			this.firstByteIsLen = true;
-		}
+	final static class NoEOT extends ParsingException {
 
-		abstract void end() throws ParsingException;
+		/** */
+		private static final long serialVersionUID = 1L;
 
-		@Override
-		final ParseState getNext(byte read)
-				throws UnsupportedOperationException {
-			throw new UnsupportedOperationException();
+		public NoEOT() {
 		}
 
-		@Override
-		void parse(byte read) throws ParsingException {
-			if (this.check) {
-				this.check = false;
-				if (this.len < 0) {
-					this.len = 0x7f & read;
-					byteToFollow = (0x80 & read) != 0;
-					--MidiParser.this.trackLen;
-				} else {
-					MidiParser.this.bytes.add(read);
-				}
-				if (!byteToFollow && (MidiParser.this.trackLen -= this.len) < 0) {
-					throw new NoEOT();
-				}
-			} else if (byteToFollow) {
-				this.len <<= 7;
-				this.len += 0x7f & read;
-				byteToFollow = (0x80 & read) != 0;
-				--MidiParser.this.trackLen;
-				if (!byteToFollow && (MidiParser.this.trackLen -= this.len) < 0) {
-					throw new NoEOT();
-				}
-			} else {
-				MidiParser.this.bytes.add(read);
-			}
-			if (MidiParser.this.bytes.size() == this.len) {
-				if (this.firstByteIsLen) {
-					this.len = -1;
-				}
-				end();
-				this.check = true;
-				MidiParser.this.state = MidiParser.this.DELTA;
-			}
-		}
 
 		@Override
-		final void reset() {
-			if (this.firstByteIsLen) {
-				this.len = -1;
-			}
-			this.check = true;
-		}
-	}
-
-	private final class ParseState_Tempo extends ParseState_ReadN {
-
-		ParseState_Tempo() {
-			super();
+		public final String toString() {
+			return "Expected end of track (0xff 2f00)";
 		}
 
-		@Override
-		final void end() {
-			int tempo = 0;
-			while (!MidiParser.this.bytes.isEmpty()) {
-				tempo <<= 8;
-				tempo += 0xff & MidiParser.this.bytes.remove().byteValue();
-			}
-			MidiParser.this.lastEvent = new TempoChange(tempo,
-					MidiParser.this.DELTA.delta);
-		}
 	}
 
-	private final class ParseState_Time extends ParseState_ReadN {
+	final static class TrackNotDecoded extends DecodingException {
 
-		public ParseState_Time() {
-		}
-
-		@Override
-		final void end() {
-			final byte n = MidiParser.this.bytes.remove().byteValue();
-			final int d = (int) Math.pow(2, MidiParser.this.bytes.remove()
-					.byteValue());
-			final byte c = MidiParser.this.bytes.remove().byteValue();
-			final byte b = MidiParser.this.bytes.remove().byteValue();
-			MidiParser.this.lastEvent = new Time(n, d, c, b,
-					MidiParser.this.DELTA.delta);
-		}
-	}
+		/** */
+		private static final long serialVersionUID = 1L;
 
-	private final class ParseState_Type extends ParseState {
-		int lastStatus;
+		private final int track;
 
-		public ParseState_Type() {
+		public TrackNotDecoded(int track) {
+			this.track = track;
 		}
 
 
 		@Override
-		final ParseState getNext(byte read) throws ParsingException {
-			final byte status, data;
-			final boolean runningStatus;
-
-			if ((read & 0xf0) < 0x80) {
-				status = (byte) ((0xf0 & this.lastStatus) >> 4);
-				data = (byte) (0x0f & this.lastStatus);
-				runningStatus = true;
-			} else {
-				status = (byte) ((read & 0xf0) >> 4);
-				data = (byte) (read & 0x0f);
-				runningStatus = false;
-				this.lastStatus = read;
-			}
-			switch (status) {
-			case 0x8:
-				// note off
-				if (runningStatus) {
-					MidiParser.this.NOTE_OFF.k = read;
-				} else {
-					MidiParser.this.NOTE_OFF.k = -1;
-				}
-				MidiParser.this.NOTE_OFF.v = -1;
-				MidiParser.this.NOTE_OFF.channel = data;
-				return MidiParser.this.NOTE_OFF;
-			case 0x9:
-				// note on
-				if (runningStatus) {
-					MidiParser.this.NOTE_ON.k = read;
-				} else {
-					MidiParser.this.NOTE_ON.k = -1;
-				}
-				MidiParser.this.NOTE_ON.v = -1;
-				MidiParser.this.NOTE_ON.channel = data;
-				return MidiParser.this.NOTE_ON;
-			case 0xa:
-				// polyphonic after touch
-				if (runningStatus) {
-					MidiParser.this.DISCARD_N.len = 1;
-				} else {
-					MidiParser.this.DISCARD_N.len = 2;
-				}
-				return MidiParser.this.DISCARD_N;
-			case 0xb:
-				// control change
-				if (runningStatus) {
-					MidiParser.this.DISCARD_N.len = 1;
-				} else {
-					MidiParser.this.DISCARD_N.len = 2;
-				}
-				return MidiParser.this.DISCARD_N;
-			case 0xc:
-				// program change
-				if (runningStatus) {
-					throw new IllegalStateException("Running state 0xc.");
-				}
-				MidiParser.this.PROGRAM_CHANGE.channel = data;
-				return MidiParser.this.PROGRAM_CHANGE;
-			case 0xd:
-				// channel pressure
-				if (runningStatus) {
-					MidiParser.this.DISCARD_N.len = 0;
-				} else {
-					MidiParser.this.DISCARD_N.len = 1;
-				}
-				return MidiParser.this.DISCARD_N;
-			case 0xe:
-				// pitch bend
-				if (runningStatus) {
-					MidiParser.this.DISCARD_N.len = 1;
-				} else {
-					MidiParser.this.DISCARD_N.len = 2;
-				}
-				return MidiParser.this.DISCARD_N;
-			case 0xf:
-				// control
-				final ParseState nextMeta;
-				switch (data) {
-				case 0x0:
-					MidiParser.this.lastEvent = new Break(
-							MidiParser.this.DELTA.delta);
-					nextMeta = MidiParser.this.DISCARD_UNTIL_EOX;
-					break;
-				case 0xf:
-					nextMeta = MidiParser.this.META;
-					break;
-				default:
-					nextMeta = null;
-					throw new IllegalStateException();
-				}
-				return nextMeta;
-			default:
-				throw new IllegalStateException();
-			}
-		}
-
-		@Override
-		final void reset() {
-			this.lastStatus = 0;
+		public final String toString() {
+			return "Decoding track " + this.track + " failed";
 		}
 	}
 
@@ -544,8 +119,6 @@ public abstract class MidiParser {
 	/** Header of a track within a midi file, byte equivalent */
 	protected static final int TRACK_HEADER_INT = 0x4d54726b;
 
-	final static Set<ParseState> instancesOfParseState = new HashSet<>();
-
 	/**
 	 * Creates a new Parser using giving implementation.
 	 * 
@@ -561,9 +134,12 @@ public abstract class MidiParser {
 	protected final MasterThread master;
 
 	/** A map holding the parsed data */
-	protected final Map<Integer, List<MidiEvent>> eventsEncoded = new HashMap<>();
-	/** A map holding the parsed data */
-	protected final MidiMap eventsDecoded = new MidiMap(this);
+	protected final Map<Integer, TrackEvents> eventsEncoded = new HashMap<>();
+	/**
+	 * A map holding the parsed data, replaced for each midi since built maps
+	 * are shared
+	 */
+	protected MidiMap eventsDecoded = new MidiMap(this);
 
 	/** A map to keep track of skipped tracks and resulting renumbering */
 	protected final Map<Integer, Integer> renumberMap = new HashMap<>();
@@ -588,73 +164,6 @@ public abstract class MidiParser {
 	/** Format of this midi */
 	protected int format;
 
-	final ParseState CHANNEL = new ParseState_ReadN() {
-
-		@Override
-		final void end() {
-			final byte c = MidiParser.this.bytes.remove();
-			MidiParser.this.tracksToChannel.put(MidiParser.this.activeTrack, c);
-			MidiParser.this.activeChannel = 0xff & c;
-		}
-	};
-	final ParseState_Delta DELTA = new ParseState_Delta();
-	final ParseState DISCARD_UNTIL_EOX = new ParseState() {
-
-		@Override
-		final ParseState getNext(byte read) {
-			if (read == (byte) 0xf7) {
-				return MidiParser.this.DELTA;
-			}
-			return this;
-		}
-
-		@Override
-		final void reset() {
-			// nothing to reste
-		}
-
-	};
-
-	final ParseState_ReadN DISCARD_N = new ParseState_ReadN() {
-
-		@Override
-		final void end() {
-			MidiParser.this.bytes.clear();
-			if (MidiParser.this.DELTA.delta != 0) {
-				MidiParser.this.lastEvent = new Break(
-						MidiParser.this.DELTA.delta);
-			}
-		}
-	};
-	final ParseState EOT = new ParseState_EOT();
-	final ParseState_Header HEADER = new ParseState_Header();
-	final ParseState_Type TYPE = new ParseState_Type();
-	final ParseState META = new ParseState_Meta();
-	final ParseState NAME = new ParseState_ReadN() {
-
-		@Override
-		final void end() {
-			MidiParser.this.sb.setLength(0);
-			while (!MidiParser.this.bytes.isEmpty()) {
-				MidiParser.this.sb.append((char) MidiParser.this.bytes.remove()
-						.byteValue());
-			}
-			if (MidiParser.this.sb.length() > 60) {
-				MidiParser.this.sb.setLength(60);
-			}
-			MidiParser.this.titles.put(MidiParser.this.activeTrack,
-					MidiParser.this.sb.toString().trim());
-		}
-
-	};
-	final ParseState_NoteOn NOTE_ON = new ParseState_NoteOn();
-	final ParseState_NoteOff NOTE_OFF = new ParseState_NoteOff();
-	final ParseState_ProgramChange PROGRAM_CHANGE = new ParseState_ProgramChange();
-
-	final ParseState TEMPO = new ParseState_Tempo();
-
-	final ParseState TIME = new ParseState_Time();
-
 	/** A map mapping channels to instruments */
 	final Map<Byte, Byte> channelsToInstrument = new HashMap<>();
 	/** A map holding the instruments */
@@ -663,17 +172,15 @@ public abstract class MidiParser {
 	final Map<Integer, String> titles = new HashMap<>();
 	/** A map mapping tracks to channels */
 	final Map<Integer, Byte> tracksToChannel = new HashMap<>();
-	final ArrayDeque<Byte> bytes = new ArrayDeque<>();
+	/** Cache of parsed midis in the data directory */
+	private final MidiCache cache = new MidiCache(StartupContainer
+			.getDatadirectory().resolve("midiCache"));
 	/** Number of channel currently parsed */
 	int activeChannel = -1;
-	MidiEvent lastEvent;
 	private Path lastParsedMidi = null;
 	private int lock = 0;
 	private int lockRead = 0;
 	private long mod;
-	ParseState state = this.HEADER;
-
-	int trackLen;
 
 	/**
 	 * @param io
@@ -797,7 +304,8 @@ public abstract class MidiParser {
 	 * This method is thread-safe
 	 * </p>
 	 * 
-	 * @return a map of all midi events
+	 * @return a map of all midi events, shared by all callers until another
+	 *         midi is selected
 	 */
 	public final MidiMap parse() {
 		synchronized (this) {
@@ -816,8 +324,7 @@ public abstract class MidiParser {
 			if (this.lastParsedMidi == null) {
 				return null;
 			}
-			final MidiMap eventsDecoded_ = this.eventsDecoded.clone();
-			return eventsDecoded_;
+			return this.eventsDecoded;
 		} catch (final FileNotFoundException e) {
 			this.io.printError("Selected midi does not exist", true);
 			return null;
@@ -877,12 +384,8 @@ public abstract class MidiParser {
 		this.channelsToInstrument.clear();
 		this.titles.clear();
 		this.eventsEncoded.clear();
+		this.eventsDecoded = new MidiMap(this);
 		this.renumberMap.clear();
-		this.bytes.clear();
-		for (final ParseState ps : MidiParser.instancesOfParseState) {
-			ps.reset();
-		}
-		this.state = this.HEADER;
 		this.activeTrack = 0;
 		this.activeChannel = -1;
 		this.ntracks = -1;
@@ -952,8 +455,14 @@ public abstract class MidiParser {
 					throw new FileNotFoundException();
 				}
 				try {
-					createMidiMap();
-					decodeMidiMap();
+					if (!this.cache.load(this, this.midi)) {
+						createMidiMap();
+						decodeMidiMap();
+						this.eventsDecoded.build();
+						if (!this.master.isInterrupted()) {
+							this.cache.store(this, this.midi);
+						}
+					}
 				} catch (final IOException e) {
 					this.lastParsedMidi = null;
 					synchronized (this) {
@@ -981,36 +490,6 @@ public abstract class MidiParser {
 		this.lastParsedMidi = this.midi;
 	}
 
-	/**
-	 * Creates a new midi event described by given bytes and delta ticks. Header
-	 * chunks are not allowed (starting with MT).
-	 * 
-	 * @param message
-	 *            bytes to parse
-	 * @param delta
-	 *            a time offset to prior event in milliseconds
-	 * @return the parsed event
-	 * @throws ParsingException
-	 *             -
-	 */
-	protected final MidiEvent createEvent(byte[] message, int delta)
-			throws ParsingException {
-		if (this.state == this.HEADER) {
-			this.state = this.DELTA;
-		}
-		assert (this.state == this.DELTA) || (this.state == this.HEADER);
-		this.lastEvent = null;
-		this.DELTA.delta = delta;
-		this.state = this.TYPE;
-		for (final byte element : message) {
-			this.state.parse(element);
-		}
-		assert (this.state == this.DELTA) || (this.state == this.HEADER);
-		this.DELTA.delta = 0;
-
-		return this.lastEvent;
-	}
-
 	/**
 	 * Reads the given midi-file
 	 * 
@@ -1030,34 +509,6 @@ public abstract class MidiParser {
 	 */
 	protected abstract void decodeMidiMap() throws DecodingException;
 
-	/**
-	 * Parses a single midi event reading from given InputStream.
-	 * 
-	 * @param in
-	 *            InputStream to read from
-	 * @return next midi event
-	 * @throws IOException
-	 *             if an I/O-Error occurs.
-	 * @throws ParsingException
-	 *             if the midi file breaks the grammar of midi-files
-	 */
-	protected final MidiEvent parse(final InputStream in) throws IOException,
-			ParsingException {
-		if (Thread.currentThread().isInterrupted()) {
-			return null;
-		}
-		assert (this.state == this.DELTA) || (this.state == this.HEADER);
-		this.lastEvent = null;
-		this.DELTA.delta = 0;
-		while ((this.state == this.DELTA) || (this.state == this.HEADER)) {
-			this.state.parse((byte) in.read());
-		}
-		do {
-			this.state.parse((byte) in.read());
-		} while ((this.state != this.DELTA) && (this.state != this.HEADER));
-		return this.lastEvent;
-	}
-
 	/**
 	 * Requests to delete and clear all cached data to prepare next parsing
 	 * routine
@@ -1,13 +1,19 @@
 package stone.modules.midiData;
 
 import java.io.IOException;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
-import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.IntConsumer;
 
 import stone.StartupContainer;
 import stone.io.InputStream;
+import stone.io.MappedInputStream;
 import stone.util.Path;
 import stone.util.TaskPool;
+import stone.util.TaskPool.TaskGroup;
 
 
 /**
@@ -17,194 +23,392 @@ import stone.util.TaskPool;
  */
 final class MidiParserImpl extends MidiParser {
 
+	/**
+	 * Decodes the note events of a single track. The decoded notes are
+	 * buffered until they are merged into {@link MidiParser#eventsDecoded}.
+	 */
+	private final class TrackDecoder {
+
+		final Integer track;
+		final TrackEvents events;
+
+		private int[] notes;
+		private double[] starts, ends;
+		private int size;
+		private double duration;
+		private boolean decoded;
+
+		@SuppressWarnings("hiding")
+		TrackDecoder(final Integer track, final TrackEvents events) {
+			this.track = track;
+			this.events = events;
+		}
+
+		/**
+		 * Decodes all notes in a single pass.
+		 *
+		 * @param tempoChanges
+		 *            the tempo map ordered by position, starting at tick 0
+		 */
+		final void decode(final TempoChangeState[] tempoChanges) {
+			final int[] noteOffs = this.events.noteOffs();
+			int tempo = 0;
+			this.notes = new int[noteOffs.length];
+			this.starts = new double[noteOffs.length];
+			this.ends = new double[noteOffs.length];
+			for (int i = 0; i < noteOffs.length; ++i) {
+				final int noteOff = noteOffs[i];
+				if ((this.events.getVelocity(i) == 0) || (noteOff < 0)) {
+					continue;
+				}
+				final int tick = this.events.getTick(i);
+				// ticks of the note ons are ascending
+				while (((tempo + 1) < tempoChanges.length)
+						&& (tempoChanges[tempo + 1].ticks <= tick)) {
+					++tempo;
+				}
+				final TempoChangeState ts = tempoChanges[tempo];
+				final double start = ts.getMinutesAt(tick);
+				final double end = start
+						+ ts.getMinutes(this.events.getTick(noteOff) - tick);
+				if (end > this.duration) {
+					this.duration = end;
+				}
+				this.notes[this.size] = i;
+				this.starts[this.size] = start;
+				this.ends[this.size] = end;
+				++this.size;
+			}
+			MidiParserImpl.this.io.updateProgress(this.events.size());
+			this.decoded = true;
+		}
+
+		final void merge() {
+			final int id = MidiParserImpl.this.renumberMap.get(this.track) - 1;
+			for (int i = 0; i < this.size; ++i) {
+				final int note = this.notes[i];
+				MidiParserImpl.this.eventsDecoded.addNote(id,
+						this.events.getKey(note), this.starts[i], this.ends[i],
+						this.events.getVelocity(note));
+			}
+			if (this.duration > MidiParserImpl.this.duration) {
+				MidiParserImpl.this.duration = this.duration;
+			}
+			System.out.printf("duration of track %2d -> %2d: %02d:%02d,%03d\n",
+					this.track, MidiParserImpl.this.renumberMap.get(this.track),
+					(int) this.duration, (int) ((this.duration * 60) % 60),
+					(int) ((this.duration * 60 * 1000) % 1000));
+		}
+	}
+
+	private final static int NUM_CPUS = Runtime.getRuntime()
+			.availableProcessors();
+
 	private final byte[] midiHeaderBufferBytes = new byte[14];
 	private final ByteBuffer midiHeaderBuffer = ByteBuffer
 			.wrap(this.midiHeaderBufferBytes);
 	private int nextN;
-	private boolean empty = true;
 	final Duration d = new Duration(this);
 
 	int deltaTicksPerQuarter;
 	private int eventCount;
 
-	@SuppressWarnings("unused")
-	private final TaskPool taskPool; // for later multi-threaded decoding
+	private final TaskPool taskPool;
 
 	MidiParserImpl(final StartupContainer sc) {
 		super(sc.getIO(), sc.getMaster());
 		this.taskPool = sc.getTaskPool();
 	}
 
+	private final static int readVarLen(final ByteBuffer buffer) {
+		int value = 0;
+		byte read;
+		do {
+			read = buffer.get();
+			value = (value << 7) | (0x7f & read);
+		} while (read < 0);
+		return value;
+	}
+
+	private final static int skip(final ByteBuffer buffer, int len)
+			throws ParsingException {
+		if ((len < 0) || (len > buffer.remaining())) {
+			throw new NoEOT();
+		}
+		return buffer.position() + len;
+	}
+
 	/**
 	 * Parses format 1
 	 * 
-	 * @param in
-	 * @throws IOException
+	 * @param midiBuffer
+	 *            content of the entire midi file
 	 * @throws ParsingException
 	 */
-	private final void parse1(final InputStream in) throws IOException,
-			ParsingException {
-		in.read(this.midiHeaderBufferBytes); // discard the file header it has
-												// been
-		// read and parsed before
+	private final void parse1(final ByteBuffer midiBuffer)
+			throws ParsingException {
+		// discard the file header it has been read and parsed before
+		midiBuffer.position(8 + midiBuffer.getInt(4));
 		while ((this.activeTrack < this.ntracks)
 				&& !this.master.isInterrupted()) {
-			parseEvents(in);
+			if (midiBuffer.remaining() < 8) {
+				// less tracks than announced
+				break;
+			}
+			if (midiBuffer.getInt() != MidiParser.TRACK_HEADER_INT) {
+				throw new InvalidMidiTrackHeader();
+			}
+			final int trackLen = midiBuffer.getInt();
+			final ByteBuffer track = midiBuffer.slice();
+			track.limit(skip(track, trackLen));
+			midiBuffer.position(midiBuffer.position() + trackLen);
+			try {
+				parseTrack(track);
+			} catch (final BufferUnderflowException e) {
+				throw new NoEOT();
+			}
+			this.io.updateProgress(1);
 		}
 	}
 
-	private final void parseEvents(final InputStream in) throws IOException,
-			ParsingException {
+	/**
+	 * Parses a whole track and puts its note events into
+	 * {@link #eventsEncoded}
+	 * 
+	 * @param track
+	 *            content of the track chunk
+	 * @throws ParsingException
+	 */
+	private final void parseTrack(final ByteBuffer track)
+			throws ParsingException {
 		final int n_ = this.activeTrack;
-		final MidiEvent event = parse(in);
-		if (event != null) {
-			int track;
-			track = n_;
-			if (n_ == 0) {
-				if (event.getType() == EventType.TEMPO) {
-					this.d.addTempoChange((TempoChange) event);
-				}
-				// record TimeSignature if needed
-				else {
-					this.d.progress(event);
-				}
-			} else if (event.getType() == EventType.NOP) {
-				if (event.delta != 0) {
-					++this.eventCount;
-					this.eventsEncoded.get(track).add(event);
+		final TrackEvents events = new TrackEvents();
+		this.eventsEncoded.put(n_, events);
+		int tick = 0;
+		int status = 0;
+		while (true) {
+			tick += readVarLen(track);
+			final int read = 0xff & track.get();
+			if (read == 0xff) {
+				// meta event
+				final int type = 0xff & track.get();
+				final int end = skip(track, readVarLen(track));
+				if (type == 0x2f) {
+					if (end != track.limit()) {
+						throw new MissingBytesAtEOT(track.limit() - end);
+					}
+					break;
 				}
+				parseMeta(track, type, end, tick);
+				track.position(end);
+				continue;
+			} else if ((read == 0xf0) || (read == 0xf7)) {
+				// system exclusive
+				track.position(skip(track, readVarLen(track)));
+				continue;
+			}
+			final int key;
+			if (read < 0x80) {
+				// running status
+				key = read;
 			} else {
-				if ((event.getType() != EventType.TEMPO)
-						&& (event.getType() != EventType.TIME)) {
-					this.empty = false;
-				}
-				++this.eventCount;
-				this.eventsEncoded.get(track).add(event);
-			}
-		} else if (n_ != this.activeTrack) {
-			assert (n_ + 1) == this.activeTrack;
-			final Object channel = this.tracksToChannel
-					.get(Integer.valueOf(n_));
-			if ((channel == null) && (n_ > 0)) {
-				System.out.println("No channel assigned to track " + n_);
-			} else if (channel != null) {
-				final Object instrument = this.channelsToInstrument
-						.get(channel);
-				if (instrument == null) {
-					System.out.println("No instrument assigned to channel "
-							+ channel + " which is assigned to track " + n_);
+				status = read;
+				key = 0xff & track.get();
+			}
+			final int channel = status & 0x0f;
+			switch (status >> 4) {
+			case 0x8:
+				// note off
+				track.get();
+				events.add(tick, key, 0);
+				break;
+			case 0x9:
+				// note on
+				if (this.activeChannel == -1) {
+					this.activeChannel = channel;
+				} else if (this.activeChannel != channel) {
+					this.activeChannel = -2;
 				}
+				events.add(tick, key, 0xff & track.get());
+				break;
+			case 0xa:
+				// polyphonic after touch
+			case 0xb:
+				// control change
+			case 0xe:
+				// pitch bend
+				track.get();
+				break;
+			case 0xc:
+				// program change
+				this.channelsToInstrument.put((byte) channel, (byte) key);
+				break;
+			case 0xd:
+				// channel pressure
+				break;
+			default:
+				throw new InvalidStatus(status);
 			}
-			//
-			if (in.EOFreached()) {
-				this.activeTrack = this.ntracks;
-			}
-			if (n_ == 0) {
-				this.renumberMap.put(n_, ++this.nextN);
-			} else if (this.empty) {
-				this.eventCount -= this.eventsEncoded.remove(n_).size();
-				System.out.println("skipping empty midi track " + n_
-						+ "\n next track (" + this.activeTrack
-						+ ") is numbered as track " + (this.nextN + 1));
-				// empty tracks do not count
-			} else {
-				this.renumberMap.put(n_, ++this.nextN);
+		}
+		if (this.activeChannel >= 0) {
+			this.tracksToChannel.put(n_, (byte) this.activeChannel);
+		}
+		++this.activeTrack;
+		this.activeChannel = -1;
+		final Object channel = this.tracksToChannel.get(Integer.valueOf(n_));
+		if ((channel == null) && (n_ > 0)) {
+			System.out.println("No channel assigned to track " + n_);
+		} else if (channel != null) {
+			final Object instrument = this.channelsToInstrument.get(channel);
+			if (instrument == null) {
+				System.out.println("No instrument assigned to channel "
+						+ channel + " which is assigned to track " + n_);
 			}
-			this.empty = true;
-		} else if (this.master.isInterrupted()) {
-			return;
+		}
+		if (n_ == 0) {
+			this.renumberMap.put(n_, ++this.nextN);
+		} else if (events.size() == 0) {
+			this.eventsEncoded.remove(n_);
+			System.out.println("skipping empty midi track " + n_
+					+ "\n next track (" + this.activeTrack
+					+ ") is numbered as track " + (this.nextN + 1));
+			// empty tracks do not count
+		} else {
+			this.eventCount += events.size();
+			this.renumberMap.put(n_, ++this.nextN);
+		}
+	}
+
+	private final void parseMeta(final ByteBuffer track, int type, int end,
+			int tick) {
+		final int start = track.position();
+		switch (type) {
+		case 0x03:
+			// name
+			this.sb.setLength(0);
+			for (int i = start; i < end; ++i) {
+				this.sb.append((char) (0xff & track.get(i)));
+			}
+			if (this.sb.length() > 60) {
+				this.sb.setLength(60);
+			}
+			this.titles.put(this.activeTrack, this.sb.toString().trim());
+			break;
+		case 0x20:
+			// channel
+			if (start < end) {
+				final byte c = track.get(start);
+				this.tracksToChannel.put(this.activeTrack, c);
+				this.activeChannel = 0xff & c;
+			}
+			break;
+		case 0x51:
+			// tempo, only the tempo map at track 0 is used
+			if (this.activeTrack == 0) {
+				int tempo = 0;
+				for (int i = start; i < end; ++i) {
+					tempo <<= 8;
+					tempo += 0xff & track.get(i);
+				}
+				this.d.addTempoChange(new TempoChange(tempo, tick
+						- this.d.tmp));
+			}
+			break;
+		default:
+			break;
 		}
 	}
 
 	@Override
 	protected final void createMidiMap() throws ParsingException, IOException {
-		final InputStream in = this.io.openIn(this.midi.toFile());
-		in.registerProgressMonitor(this.io);
-		try {
-			if (this.format == 1) {
-				parse1(in);
-			} else {
-				this.io.close(in);
-				throw new ParsingException() {
+		if (this.format != 1) {
+			throw new ParsingException() {
 
-					/** */
-					private static final long serialVersionUID = 1L;
+				/** */
+				private static final long serialVersionUID = 1L;
 
-					@Override
-					public final String toString() {
-						return "Unknown midi format "
-								+ MidiParserImpl.this.format
-								+ " : Unable to parse selected midi";
-					}
-				};
-			}
+				@Override
+				public final String toString() {
+					return "Unknown midi format "
+							+ MidiParserImpl.this.format
+							+ " : Unable to parse selected midi";
+				}
+			};
+		}
+		final MappedInputStream in = this.io.openMapped(this.midi.toFile());
+		final ByteBuffer midiBuffer;
+		try {
+			midiBuffer = ByteBuffer.wrap(in.readFully());
 		} finally {
 			this.io.close(in);
+		}
+		this.io.startProgress("Reading midi", this.ntracks);
+		try {
+			parse1(midiBuffer);
+		} finally {
 			this.io.endProgress("Map created");
 		}
 	}
 
 	@Override
-	protected final void decodeMidiMap() {
+	protected final void decodeMidiMap() throws DecodingException {
 		this.io.startProgress("Decoding midi", this.eventCount);
+		try {
+			decodeTracks();
+		} finally {
+			this.io.endProgress("Midi decoded");
+		}
+	}
+
+	private final void decodeTracks() throws DecodingException {
 		this.eventsEncoded.remove(0);
+		// creates the default tempo if needed, the tempo map is read only
+		// while decoding
+		this.d.getMinutes(0);
+		final TempoChangeState[] tempoChanges = this.d.getTempoChanges();
+		final List<TrackDecoder> decoders = new ArrayList<>();
 		for (final Integer track : new java.util.TreeSet<>(
 				this.eventsEncoded.keySet())) {
-			final ArrayDeque<MidiEvent> eventList = new ArrayDeque<>(
-					this.eventsEncoded.get(track));
-			int deltaAbs = 0;
-			double durationTrack = 0;
-			while (!eventList.isEmpty()) {
-				if (this.master.isInterrupted()) {
-					return;
-				}
+			decoders.add(new TrackDecoder(track, this.eventsEncoded
+					.get(track)));
+		}
+		// largest tracks first to balance the load
+		final TrackDecoder[] queue = decoders
+				.toArray(new TrackDecoder[decoders.size()]);
+		java.util.Arrays.sort(queue, new Comparator<TrackDecoder>() {
+
+			@Override
+			public final int compare(final TrackDecoder o1,
+					final TrackDecoder o2) {
+				return o2.events.size() - o1.events.size();
+			}
+		});
+		final TaskGroup group = this.taskPool.createGroup();
+		final boolean done = group.forEach(queue.length, NUM_CPUS,
+				new IntConsumer() {
 
-				final MidiEvent event = eventList.remove();
-				deltaAbs += event.delta;
-
-				switch (event.getType()) {
-				// case NOTE_OFF:
-				// io.updateProgress(1);
-				// break;
-				case NOTE_ON:
-					// search for NOTE_OFF
-					final double start = this.d.getMinutes(deltaAbs);
-					final TempoChangeState ts = this.d.lastChange.getValue();
-					final NoteOnEvent noteOn = (NoteOnEvent) event;
-					int durationTicks = 0;
-					for (final MidiEvent iter : eventList) {
-						durationTicks += iter.delta;
-						if (iter.getType() == EventType.NOTE_OFF) {
-							final NoteOffEvent noteOff = (NoteOffEvent) iter;
-							if (noteOff.getKey() == noteOn.getKey()) {
-								final double end = start
-										+ ts.getMinutes(durationTicks);
-								if (end > durationTrack) {
-									durationTrack = end;
-									if (end > this.duration) {
-										this.duration = end;
-									}
-								}
-								this.eventsDecoded.addNote(
-										this.renumberMap.get(track) - 1,
-										noteOn.getKey(), start, end,
-										noteOn.getVelocity());
-								break;
-							}
+					@Override
+					public final void accept(int i) {
+						if (MidiParserImpl.this.master.isInterrupted()) {
+							return;
+						}
+						try {
+							queue[i].decode(tempoChanges);
+						} catch (final RuntimeException e) {
+							// the track stays marked as not decoded
+							e.printStackTrace();
 						}
 					}
-					this.io.updateProgress(1);
-					break;
-				default:
-					this.io.updateProgress(1);
-				}
+				});
+		if (!done || this.master.isInterrupted()) {
+			return;
+		}
+		for (final TrackDecoder decoder : decoders) {
+			if (!decoder.decoded) {
+				throw new MidiParser.TrackNotDecoded(decoder.track);
 			}
-			System.out.printf("duration of track %2d -> %2d: %02d:%02d,%03d\n",
-					track, this.renumberMap.get(track), (int) durationTrack,
-					(int) ((durationTrack * 60) % 60),
-					(int) ((durationTrack * 60 * 1000) % 1000));
+			decoder.merge();
 		}
-		this.io.endProgress("Midi decoded");
 	}
 
 	@Override
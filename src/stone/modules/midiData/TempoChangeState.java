@@ -6,7 +6,7 @@ final class TempoChangeState {
 	 */
 	private final MidiParserImpl midiParser;
 	private final int microsPerQuarter;
-	private final int ticks;
+	final int ticks;
 	final double minutes;
 
 	TempoChangeState(
@@ -39,4 +39,8 @@ final class TempoChangeState {
 				/ (double) this.midiParser.deltaTicksPerQuarter;
 		return (quarters * this.microsPerQuarter) / 6e7;
 	}
+
+	final double getMinutesAt(int tick) {
+		return this.minutes + getMinutes(tick - this.ticks);
+	}
 }
\ No newline at end of file
@@ -0,0 +1,99 @@
+package stone.modules.midiData;
+
+import java.util.Arrays;
+
+/**
+ * The note events of a single midi track, stored in primitive columns. A note
+ * off is stored as note with velocity 0.
+ *
+ * @author Nelphindal
+ */
+final class TrackEvents {
+
+	private int[] ticks = new int[0x100];
+	private byte[] keys = new byte[0x100];
+	private byte[] velocities = new byte[0x100];
+	private int size;
+
+	TrackEvents() {
+	}
+
+	/**
+	 * Appends an event.
+	 *
+	 * @param tick
+	 *            absolute position in ticks
+	 * @param key
+	 *            -
+	 * @param velocity
+	 *            -, 0 for note off
+	 */
+	final void add(int tick, int key, int velocity) {
+		if (this.size == this.ticks.length) {
+			final int capacity = this.size << 1;
+			this.ticks = Arrays.copyOf(this.ticks, capacity);
+			this.keys = Arrays.copyOf(this.keys, capacity);
+			this.velocities = Arrays.copyOf(this.velocities, capacity);
+		}
+		this.ticks[this.size] = tick;
+		this.keys[this.size] = (byte) key;
+		this.velocities[this.size] = (byte) velocity;
+		++this.size;
+	}
+
+	final int getKey(int i) {
+		return this.keys[i];
+	}
+
+	final int getTick(int i) {
+		return this.ticks[i];
+	}
+
+	final int getVelocity(int i) {
+		return 0xff & this.velocities[i];
+	}
+
+	/**
+	 * Searches for each note on the first following note off of the same key.
+	 * The open note ons of each key are kept on a stack, which is emptied by
+	 * the next note off of that key. A note on with velocity 0 is a note off
+	 * as well. The time taken is linear in the number of events.
+	 *
+	 * @return an array holding at index of each note on the index of its note
+	 *         off, or -1 if there is none
+	 */
+	final int[] noteOffs() {
+		final int[] offs = new int[this.size];
+		// pending note ons of each key, linked by offs
+		final int[] pending = new int[0x100];
+		Arrays.fill(pending, -1);
+		for (int i = 0; i < this.size; ++i) {
+			final int key = 0xff & this.keys[i];
+			if (this.velocities[i] != 0) {
+				offs[i] = pending[key];
+				pending[key] = i;
+				continue;
+			}
+			int on = pending[key];
+			while (on >= 0) {
+				final int next = offs[on];
+				offs[on] = i;
+				on = next;
+			}
+			pending[key] = -1;
+		}
+		for (int key = 0; key < pending.length; ++key) {
+			int on = pending[key];
+			while (on >= 0) {
+				final int next = offs[on];
+				offs[on] = -1;
+				on = next;
+			}
+		}
+		return offs;
+	}
+
+	final int size() {
+		return this.size;
+	}
+}
@@ -0,0 +1,245 @@
+package stone.modules.songData;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import stone.util.FileSystem;
+import stone.util.Path;
+
+/**
+ * Reads the X: and T: lines of abc-files byte-wise. All other lines are
+ * skipped without decoding them. Buffers are reused for every file, so each
+ * thread of the {@link Scanner} has to use its own instance.
+ *
+ * @author Nelphindal
+ */
+final class AbcHeaderReader {
+
+	/** Type of a line starting with X: */
+	static final int X = 'X';
+
+	/** Type of a line starting with T: */
+	static final int T = 'T';
+
+	/** Type of any other line */
+	static final int OTHER = 0;
+
+	/** Returned if the end of file or the budget has been reached */
+	static final int END = -1;
+
+	private static final int BUFFER_SIZE = 0x2000;
+
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private final CharsetDecoder decoder = FileSystem.DEFAULT_CHARSET
+			.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private final StringBuilder title = new StringBuilder();
+	private final long budget;
+
+	private byte[] line = new byte[256];
+	private ByteBuffer lineBuffer = ByteBuffer.wrap(this.line);
+	private CharBuffer chars = allocateChars();
+	private int lineLength;
+
+	private FileChannel channel;
+	private boolean eof;
+	private long bodyBytes;
+	private int lineNumber;
+
+	/**
+	 * @param budget
+	 *            number of bytes of other lines to read after the last X:
+	 *            line before giving up, 0 to read always the complete file
+	 */
+	AbcHeaderReader(@SuppressWarnings("hiding") final long budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * Closes the current file.
+	 */
+	final void close() {
+		if (this.channel != null) {
+			try {
+				this.channel.close();
+			} catch (final IOException e) {
+				// Silently disregard the thrown exception
+			}
+			this.channel = null;
+		}
+	}
+
+	/**
+	 * @return number of the line read by last call of {@link #nextLine()}
+	 */
+	final int lineNumber() {
+		return this.lineNumber;
+	}
+
+	/**
+	 * Reads the next line.
+	 *
+	 * @return {@link #X}, {@link #T}, {@link #OTHER} or {@link #END}
+	 * @throws IOException
+	 *             if an I/O-Error occurs
+	 */
+	final int nextLine() throws IOException {
+		++this.lineNumber;
+		this.lineLength = 0;
+		int c = read();
+		if (c < 0) {
+			return END;
+		}
+		while ((c >= 0) && (c != '\n') && (this.lineLength < 2)) {
+			append(c);
+			c = read();
+		}
+		final boolean header = (this.lineLength == 2)
+				&& (this.line[1] == ':')
+				&& ((this.line[0] == X) || (this.line[0] == T));
+		long skipped = this.lineLength;
+		while ((c >= 0) && (c != '\n')) {
+			if (header) {
+				append(c);
+			} else {
+				++skipped;
+			}
+			c = read();
+		}
+		if (header) {
+			if ((this.lineLength > 0)
+					&& (this.line[this.lineLength - 1] == '\r')) {
+				--this.lineLength;
+			}
+			if (this.line[0] == X) {
+				this.bodyBytes = 0;
+			}
+			return this.line[0];
+		}
+		this.bodyBytes += skipped + 1;
+		if ((this.budget > 0) && (this.bodyBytes > this.budget)) {
+			return END;
+		}
+		return OTHER;
+	}
+
+	/**
+	 * Opens given file and resets all counters.
+	 *
+	 * @param file
+	 *            abc-file to read
+	 * @throws IOException
+	 *             if an I/O-Error occurs
+	 */
+	final void open(final Path file) throws IOException {
+		close();
+		this.channel = FileChannel.open(file.toFile().toPath(),
+				StandardOpenOption.READ);
+		this.buffer.clear().flip();
+		this.eof = false;
+		this.bodyBytes = 0;
+		this.lineNumber = 0;
+	}
+
+	/**
+	 * Decodes the value of last read header line and appends it trimmed to
+	 * given builder.
+	 *
+	 * @param sb
+	 *            builder to append to
+	 */
+	final void appendValue(final StringBuilder sb) {
+		int start = 2;
+		int end = this.lineLength;
+		while ((start < end) && ((this.line[start] & 0xff) <= ' ')) {
+			++start;
+		}
+		while ((end > start) && ((this.line[end - 1] & 0xff) <= ' ')) {
+			--end;
+		}
+		this.lineBuffer.limit(end).position(start);
+		this.chars.clear();
+		this.decoder.reset();
+		this.decoder.decode(this.lineBuffer, this.chars, true);
+		this.decoder.flush(this.chars);
+		this.chars.flip();
+		sb.append(this.chars);
+	}
+
+	/**
+	 * @return an empty builder to be filled by
+	 *         {@link #appendValue(StringBuilder)}, it will be reused for the
+	 *         next title
+	 */
+	final StringBuilder title() {
+		this.title.setLength(0);
+		return this.title;
+	}
+
+	/**
+	 * Parses the value of last read X: line.
+	 *
+	 * @return the parsed id or -1 if the value is no number
+	 */
+	final int voiceId() {
+		int i = 2;
+		int end = this.lineLength;
+		while ((i < end) && ((this.line[i] & 0xff) <= ' ')) {
+			++i;
+		}
+		while ((end > i) && ((this.line[end - 1] & 0xff) <= ' ')) {
+			--end;
+		}
+		if (i == end) {
+			return -1;
+		}
+		long id = 0;
+		for (; i < end; ++i) {
+			final byte b = this.line[i];
+			if ((b < '0') || (b > '9')) {
+				return -1;
+			}
+			id = (10 * id) + (b - '0');
+			if (id > Integer.MAX_VALUE) {
+				return -1;
+			}
+		}
+		return (int) id;
+	}
+
+	private final void append(int c) {
+		if (this.lineLength == this.line.length) {
+			this.line = Arrays.copyOf(this.line, 2 * this.line.length);
+			this.lineBuffer = ByteBuffer.wrap(this.line);
+			this.chars = allocateChars();
+		}
+		this.line[this.lineLength++] = (byte) c;
+	}
+
+	private final CharBuffer allocateChars() {
+		return CharBuffer.allocate((int) Math.ceil(this.line.length
+				* this.decoder.maxCharsPerByte()));
+	}
+
+	private final int read() throws IOException {
+		if (!this.buffer.hasRemaining()) {
+			if (this.eof) {
+				return -1;
+			}
+			this.buffer.clear();
+			final int read = this.channel.read(this.buffer);
+			this.buffer.flip();
+			if (read <= 0) {
+				this.eof = true;
+				return -1;
+			}
+		}
+		return this.buffer.get() & 0xff;
+	}
+}
@@ -1,27 +1,110 @@
 package stone.modules.songData;
 
-import java.util.ArrayDeque;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import stone.util.Debug;
 import stone.util.Path;
 
 /**
  * A task to search recursively and compare file with found data by a
- * {@link Deserializer}
+ * {@link Deserializer}. Directories not modified since last run are not listed
+ * again, their content is taken from the {@link DirIndex} of the
+ * {@link Deserializer}.
+ * <p>
+ * Each directory is visited by its own task of a {@link ForkJoinPool}, idle
+ * threads steal the sub-directories of busy ones. The songs of one directory
+ * are handed to the {@link Deserializer} at once. Crawling is done when the
+ * task of the root returns.
  * 
  * @author Nelphindal
  * 
  */
 public class Crawler implements Runnable {
 
-	private final ArrayDeque<Path> wl = new ArrayDeque<>();
+	private final class DirTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Path path;
+
+		DirTask(@SuppressWarnings("hiding") final Path path) {
+			this.path = path;
+		}
+
+		@Override
+		protected final void compute() {
+			if (Thread.currentThread().isInterrupted()) {
+				return;
+			}
+			final List<DirTask> subTasks = new ArrayList<>();
+			final DirIndex.Dir stored = Crawler.this.index
+					.lookupUnchanged(this.path);
+			if (stored != null) {
+				// unchanged since last run - take the entries from the index
+				final List<ModEntry> files = new ArrayList<>(
+						stored.files.length);
+				for (final String name : stored.dirs) {
+					subTasks.add(new DirTask(this.path.resolve(name)));
+				}
+				for (int i = 0; i < stored.files.length; ++i) {
+					files.add(new ModEntry(this.path.resolve(stored.files[i]),
+							stored.fileMods[i]));
+				}
+				Crawler.this.sdd.addToQueue(files);
+				Crawler.this.index.record(this.path, stored);
+			} else {
+				final File dir = this.path.toFile();
+				final long mod = dir.lastModified();
+				final String[] names = dir.list();
+				if (names == null) {
+					return;
+				}
+				final List<String> dirs = new ArrayList<>();
+				final List<ModEntry> files = new ArrayList<>();
+				for (final String name : names) {
+					if (name.startsWith(".")) {
+						continue;
+					}
+					final File file = new File(dir, name);
+					if (file.isDirectory()) {
+						dirs.add(name);
+						subTasks.add(new DirTask(this.path.resolve(name)));
+					} else if (name.endsWith(".abc") && file.isFile()) {
+						final ModEntry song = new ModEntry(
+								this.path.resolve(name));
+						Debug.print("found %s\n", song.getKey().toString()
+								.substring(Crawler.this.offset));
+						files.add(song);
+					}
+				}
+				Crawler.this.sdd.addToQueue(files);
+				final String[] fileNames = new String[files.size()];
+				final long[] fileMods = new long[files.size()];
+				for (int i = 0; i < fileNames.length; ++i) {
+					final ModEntry song = files.get(i);
+					fileNames[i] = song.getKey().getFilename();
+					fileMods[i] = song.getValue().longValue();
+				}
+				Crawler.this.index.record(this.path, new DirIndex.Dir(mod,
+						dirs.toArray(new String[dirs.size()]), fileNames,
+						fileMods));
+			}
+			invokeAll(subTasks);
+		}
+	}
+
 	private final Deserializer sdd;
+	private final DirIndex index;
 
-	private final boolean terminated = false;
+	private final AtomicBoolean started = new AtomicBoolean();
+	private volatile boolean terminated = false;
 	private final int offset;
 
-	private final java.util.concurrent.atomic.AtomicInteger threads = new java.util.concurrent.atomic.AtomicInteger();
-
 	/**
 	 * Creates a new crealer
 	 * 
@@ -30,23 +113,28 @@ public class Crawler implements Runnable {
 	 */
 	public Crawler(@SuppressWarnings("hiding") final Deserializer sdd) {
 		this.offset = sdd.getRoot().toString().length() + 1;
-		this.wl.add(sdd.getRoot());
 		this.sdd = sdd;
+		this.index = sdd.getDirIndex();
 	}
 
+	/**
+	 * Crawls the complete tree below the root of used {@link Deserializer}.
+	 * Only the first call does the work, all further calls return immediately.
+	 */
 	@Override
 	public final void run() {
+		if (this.started.getAndSet(true)) {
+			return;
+		}
+		final ForkJoinPool pool = new ForkJoinPool();
 		try {
-			while (crawl()) {
-				;
-			}
+			pool.invoke(new DirTask(this.sdd.getRoot()));
 		} catch (final Exception e) {
 			e.printStackTrace();
-			this.threads.set(-1);
-			synchronized (this.wl) {
-				this.wl.notifyAll();
-			}
-			return;
+		} finally {
+			pool.shutdown();
+			this.terminated = true;
+			this.sdd.crawlDone();
 		}
 	}
 
@@ -55,55 +143,7 @@ public class Crawler implements Runnable {
 	 * 
 	 * @return <i>true</i> if crawling is done
 	 */
-	public final synchronized boolean terminated() {
+	public final boolean terminated() {
 		return this.terminated;
 	}
-
-	private final boolean crawl() throws InterruptedException {
-		final Path path;
-		synchronized (this.wl) {
-			if (this.wl.isEmpty()) {
-				if (this.threads.get() <= 0) {
-					synchronized (this.sdd) {
-						this.sdd.crawlDone();
-					}
-					this.wl.notifyAll();
-					return false;
-				}
-				while (this.wl.isEmpty()) {
-					this.wl.wait();
-					if (this.threads.get() == 0) {
-						return false;
-					}
-				}
-				return true;
-			}
-			path = this.wl.remove();
-			this.threads.incrementAndGet();
-		}
-		if (!path.exists()) {
-			this.threads.decrementAndGet();
-			return true;
-		}
-		if (path.toFile().isDirectory()) {
-			for (final String name : path.toFile().list()) {
-				if (name.startsWith(".")) {
-					continue;
-				}
-				synchronized (this.wl) {
-					this.wl.add(path.resolve(name));
-					this.wl.notifyAll();
-				}
-			}
-		} else if (path.toFile().isFile()
-				&& path.getFilename().endsWith(".abc")) {
-			Debug.print("found %s\n", path.toString().substring(this.offset));
-			synchronized (this.sdd) {
-				this.sdd.addToQueue(new ModEntry(path));
-				this.sdd.notifyAll();
-			}
-		}
-		this.threads.decrementAndGet();
-		return true;
-	}
 }
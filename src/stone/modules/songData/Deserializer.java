@@ -1,7 +1,9 @@
 package stone.modules.songData;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayDeque;
+import java.util.Collection;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -25,6 +27,12 @@ abstract public class Deserializer {
 	 */
 	protected static final String VERSION_ID_FILE = "sdd";
 
+	/**
+	 * Suffix of a completely written store, which could not replace the
+	 * previous one
+	 */
+	protected static final String NEW_SUFFIX = ".new";
+
 	/**
 	 * @param sdc
 	 *            container to call back to register read data
@@ -37,6 +45,9 @@ abstract public class Deserializer {
 		final IOHandler io = sdc.getIOHandler();
 		final Map<String, AbstractInputStream> zipEntriesMap;
 
+		if (Deserializer_4.isStore(idx)) {
+			return new Deserializer_4(sdc);
+		}
 		if (!idx.exists())
 			zipEntriesMap = null;
 		else
@@ -76,11 +87,21 @@ abstract public class Deserializer {
 				};
 				break;
 			case 0:
-				instance = new Deserializer_0(sdc, master);
+				// read the old format and write the current one
+				instance = new Deserializer_4(sdc) {
+
+					private final Deserializer_0 sdd = new Deserializer_0(sdc,
+							master, this);
+
+					@Override
+					public final Runnable getDeserialTask() {
+						return this.sdd.getDeserialTask();
+					}
+				};
 				break;
 			case -1: // first run
 			default:
-				instance = new Deserializer_0(sdc, master);
+				instance = new Deserializer_4(sdc);
 			}
 			return instance;
 		} catch (final IOException e) {
@@ -93,9 +114,15 @@ abstract public class Deserializer {
 
 		final Path idxOld = root.resolve("..", "PluginData", "SongbookUpdateData.zip");
 
+		final Path idxNew = idx.getParent().resolve(
+				idx.getFilename() + NEW_SUFFIX);
+
 		if (idxOld.exists()) {
 			idxOld.renameTo(idx);
 		}
+		if (idxNew.exists()) {
+			idxNew.renameTo(idx);
+		}
 		return idx;
 	}
 
@@ -108,6 +135,8 @@ abstract public class Deserializer {
 	protected final IOHandler io;
 	/** container to call back to register read data */
 	protected final SongData sdc;
+	/** modification dates of directories of previous run */
+	protected final DirIndex dirIndex;
 
 	private final ArrayDeque<ModEntry> queue = new ArrayDeque<>();
 	private final AtomicInteger songsFound = new AtomicInteger();
@@ -127,6 +156,13 @@ abstract public class Deserializer {
 		this.root = sdc.getRoot();
 		this.io = sdc.getIOHandler();
 		this.idx = getIdx(this.root);
+		if (sdc.isFullRescan()) {
+			this.dirIndex = new DirIndex(this.root);
+		} else {
+			this.dirIndex = Deserializer_4.isStore(this.idx) ? Deserializer_4
+					.readDirIndex(this.idx, this.root) : DirIndex.read(this.idx,
+					this.root);
+		}
 	}
 
 	/**
@@ -150,6 +186,24 @@ abstract public class Deserializer {
 		this.songsFound.incrementAndGet();
 	}
 
+	/**
+	 * Informs that songs with given properties have been found. Waiting
+	 * callers of {@link #pollFromQueue()} are woken up once for all songs.
+	 * 
+	 * @param songs
+	 *            found songs
+	 */
+	public final void addToQueue(final Collection<ModEntry> songs) {
+		if (songs.isEmpty()) {
+			return;
+		}
+		synchronized (this) {
+			this.queue.addAll(songs);
+			notifyAll();
+		}
+		this.songsFound.addAndGet(songs.size());
+	}
+
 	/**
 	 * Informs that no more calls of {@link #addToQueue(ModEntry)} will happen
 	 */
@@ -206,6 +260,14 @@ abstract public class Deserializer {
 	 */
 	public abstract Runnable getDeserialTask();
 
+	/**
+	 * @return the index of directories read from previous run and filled
+	 *         during this run
+	 */
+	final DirIndex getDirIndex() {
+		return this.dirIndex;
+	}
+
 	/**
 	 * This method is identical to calling {@link SongData#getIOHandler} upon
 	 * {@link #sdc}
@@ -315,6 +377,24 @@ abstract public class Deserializer {
 	 */
 	protected abstract void finish_();
 
+	/**
+	 * Writes the directories recorded at {@link #dirIndex} next to
+	 * {@link #idx}.
+	 * 
+	 * @return the written file or <i>null</i> if writing failed
+	 */
+	protected final File writeDirIndex() {
+		final File file = this.idx.getParent().resolve(DirIndex.ENTRY).toFile();
+		try {
+			this.dirIndex.write(file);
+			return file;
+		} catch (final IOException e) {
+			Debug.print("Failed to write directory index: %s\n", e.getMessage());
+			file.delete();
+			return null;
+		}
+	}
+
 	/**
 	 * Implements {@link #serialize(SongDataEntry)}
 	 * 
@@ -62,17 +62,19 @@ class Deserializer_0 extends Deserializer implements MTDeserializer {
 				}
 			}
 			final Path path = dir.resolve(name);
-			if (!path.exists()) // file deleted -> info not needed
-			{
-				Debug.print(path + " not existing");
-				return null;
-			}
 			final long mod = readMod(is);
-			if (path.toFile().lastModified() != mod) // file edited -> info not
-														// needed
-			{
-				Debug.print(path + " changed");
-				return null;
+			if (!Deserializer_0.this.dirIndex.isUnchanged(path, mod)) {
+				if (!path.exists()) // file deleted -> info not needed
+				{
+					Debug.print(path + " not existing");
+					return null;
+				}
+				if (path.toFile().lastModified() != mod) // file edited -> info
+															// not needed
+				{
+					Debug.print(path + " changed");
+					return null;
+				}
 			}
 			voices = SongData.readExternal(is, this);
 			return new SongDataEntry(path, voices, mod);
@@ -154,7 +156,7 @@ class Deserializer_0 extends Deserializer implements MTDeserializer {
 			}
 			if (this.id.decrementAndGet() <= 0) {
 				try {
-					deserialize();
+					Deserializer_0.this.owner.deserialize();
 				} catch (final IOException e) {
 					e.printStackTrace();
 				}
@@ -477,14 +479,32 @@ class Deserializer_0 extends Deserializer implements MTDeserializer {
 
 	private final static int MOD_LEN = 6;
 
+	private final Deserializer owner;
+
 	protected Deserializer_0(@SuppressWarnings("hiding") final SongData sdc,
 			@SuppressWarnings("hiding") final MasterThread master) {
+		this(sdc, master, null);
+	}
+
+	/**
+	 * Creates an instance only reading the stored data. The deserialization is
+	 * reported as done to <i>owner</i>, which is responsible for writing.
+	 */
+	@SuppressWarnings("hiding")
+	Deserializer_0(final SongData sdc, final MasterThread master,
+			final Deserializer owner) {
 		super(sdc);
 		this.master = master;
 		if (!this.idx.getParent().exists())
 			this.idx.getParent().toFile().mkdirs();
 		this.pathIdMap = this.idx.getParent().resolve("path.map");
-		this.pathIdOut = this.io.openOut(this.pathIdMap.toFile());
+		if (owner == null) {
+			this.owner = this;
+			this.pathIdOut = this.io.openOut(this.pathIdMap.toFile());
+		} else {
+			this.owner = owner;
+			this.pathIdOut = null;
+		}
 	}
 
 	@Override
@@ -538,6 +558,10 @@ class Deserializer_0 extends Deserializer implements MTDeserializer {
 		this.io.close(out);
 		this.files.add(versionFile);
 		this.files.add(this.pathIdMap.toFile());
+		final File dirIndexFile = writeDirIndex();
+		if (dirIndexFile != null) {
+			this.files.add(dirIndexFile);
+		}
 		final File[] files = this.files.toArray(new File[this.files.size()]);
 		this.io.compress(this.idx.toFile(), files);
 		clear(files);
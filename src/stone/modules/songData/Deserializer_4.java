@@ -0,0 +1,410 @@
+package stone.modules.songData;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import stone.modules.SongData;
+import stone.util.Debug;
+import stone.util.FileSystem;
+import stone.util.Path;
+
+/**
+ * Stores all songs in a single file. The file consists of a fixed header, one
+ * length-prefixed record per song, a table holding the offset of each record
+ * and the {@link DirIndex}. Records and offset table are read into the heap at
+ * once, so the file is not locked and can be replaced on {@link #finish_()}.
+ * Records can be parsed in parallel using the offset table. Writing appends
+ * each record to one buffered channel, header and tables are written on
+ * {@link #finish_()}.
+ *
+ * @author Nelphindal
+ */
+class Deserializer_4 extends Deserializer {
+
+	private final static int MAGIC = 0x53444404;
+	private final static int HEADER_SIZE = 32;
+	private final static int CHUNK_SIZE = 256;
+	private final static int BUFFER_SIZE = 0x10000;
+
+	/**
+	 * Checks if given file is a store written by this class
+	 *
+	 * @param idx
+	 *            file to check
+	 * @return <i>true</i> if <i>idx</i> starts with the expected header
+	 */
+	static final boolean isStore(final Path idx) {
+		if (!idx.exists() || (idx.toFile().length() < HEADER_SIZE)) {
+			return false;
+		}
+		try (final DataInputStream in = new DataInputStream(
+				new java.io.FileInputStream(idx.toFile()))) {
+			return in.readInt() == MAGIC;
+		} catch (final IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Reads the {@link DirIndex} of a store written by this class
+	 *
+	 * @param idx
+	 *            file to read from
+	 * @param root
+	 *            the directory all stored paths are relative to
+	 * @return the read index, an empty index on failure
+	 */
+	static final DirIndex readDirIndex(final Path idx, final Path root) {
+		final DirIndex index = new DirIndex(root);
+		try (final FileChannel channel = FileChannel.open(
+				idx.toAbsolutePath(), StandardOpenOption.READ)) {
+			final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			while (header.hasRemaining()) {
+				if (channel.read(header) < 0) {
+					return index;
+				}
+			}
+			header.flip();
+			if (header.getInt() != MAGIC) {
+				return index;
+			}
+			header.getInt(); // count
+			header.getLong(); // table offset
+			channel.position(header.getLong());
+			index.read(new DataInputStream(new BufferedInputStream(Channels
+					.newInputStream(channel))));
+		} catch (final IOException e) {
+			Debug.print("Failed to read directory index: %s\n", e.getMessage());
+			return new DirIndex(root);
+		}
+		return index;
+	}
+
+	/**
+	 * Reads header, records and offset table of a store into the heap.
+	 *
+	 * @return the read bytes, <i>null</i> if the header is corrupted
+	 */
+	private final static ByteBuffer readRecords(final FileChannel channel)
+			throws IOException {
+		final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		while (header.hasRemaining()) {
+			if (channel.read(header) < 0) {
+				return null;
+			}
+		}
+		header.flip();
+		header.getInt(); // magic
+		final int count = header.getInt();
+		final long tableOffset = header.getLong();
+		final long tableEnd = tableOffset + ((long) count * (Long.SIZE / 8));
+		if ((count < 0) || (tableOffset < HEADER_SIZE)
+				|| (tableEnd > Math.min(channel.size(), Integer.MAX_VALUE))) {
+			return null;
+		}
+		final ByteBuffer records = ByteBuffer.allocate((int) tableEnd);
+		header.rewind();
+		records.put(header);
+		while (records.hasRemaining()) {
+			if (channel.read(records) < 0) {
+				return null;
+			}
+		}
+		records.flip();
+		return records;
+	}
+
+	private final Path tmp;
+
+	private final FileChannel out;
+	private final ByteBuffer outBuffer;
+	private long outPosition = HEADER_SIZE;
+	private long[] offsets = new long[1024];
+	private int count;
+
+	private final ByteBuffer in;
+	private final int countIn;
+	private final int tableOffsetIn;
+
+	private final AtomicInteger nextIn = new AtomicInteger();
+	private final AtomicInteger runningIn = new AtomicInteger();
+	private final AtomicBoolean deserialReported = new AtomicBoolean();
+
+	Deserializer_4(@SuppressWarnings("hiding") final SongData sdc) {
+		super(sdc);
+		this.tmp = this.idx.getParent().resolve(
+				this.idx.getFilename() + NEW_SUFFIX);
+		ByteBuffer records = null;
+		if (isStore(this.idx)) {
+			try (final FileChannel channel = FileChannel.open(
+					this.idx.toAbsolutePath(), StandardOpenOption.READ)) {
+				records = readRecords(channel);
+				if (records == null) {
+					Debug.print("Corrupted header in %s\n", this.idx);
+				}
+			} catch (final IOException e) {
+				Debug.print("Failed to read %s: %s\n", this.idx,
+						e.getMessage());
+				records = null;
+			}
+		}
+		this.in = records;
+		if (records == null) {
+			this.countIn = 0;
+			this.tableOffsetIn = 0;
+		} else {
+			this.countIn = records.getInt(Integer.SIZE / 8);
+			this.tableOffsetIn = (int) records.getLong(2 * (Integer.SIZE / 8));
+		}
+
+		FileChannel channel = null;
+		if (this.tmp.getParent().exists()) {
+			try {
+				channel = FileChannel.open(this.tmp.toAbsolutePath(),
+						StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+						StandardOpenOption.TRUNCATE_EXISTING);
+				channel.position(HEADER_SIZE);
+			} catch (final IOException e) {
+				Debug.print("Failed to open %s: %s\n", this.tmp,
+						e.getMessage());
+				channel = null;
+			}
+		}
+		this.out = channel;
+		this.outBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	}
+
+	@Override
+	public Runnable getDeserialTask() {
+		if (this.in == null) {
+			return null;
+		}
+		this.io.startProgress("Parsing results from last run", this.countIn);
+		return new Runnable() {
+
+			@Override
+			public final void run() {
+				parseRecords();
+			}
+		};
+	}
+
+	private final void flush() throws IOException {
+		this.outBuffer.flip();
+		while (this.outBuffer.hasRemaining()) {
+			this.out.write(this.outBuffer);
+		}
+		this.outBuffer.clear();
+	}
+
+	private final void parseRecords() {
+		this.runningIn.incrementAndGet();
+		try {
+			final ByteBuffer view = this.in.duplicate();
+			final DirTree tree = this.sdc.getDirTree();
+			while (!Thread.currentThread().isInterrupted()) {
+				final int start = this.nextIn.getAndAdd(CHUNK_SIZE);
+				if (start >= this.countIn) {
+					break;
+				}
+				final int end = Math.min(start + CHUNK_SIZE, this.countIn);
+				for (int i = start; i < end; ++i) {
+					final long offset = view.getLong(this.tableOffsetIn
+							+ (i * (Long.SIZE / 8)));
+					if (!isRecord(view, offset)) {
+						Debug.print("Invalid offset of record %d: %d\n", i,
+								offset);
+						continue;
+					}
+					view.position((int) offset);
+					final SongDataEntry entry = parseRecord(view);
+					if (entry != null) {
+						tree.put(entry);
+					}
+				}
+				this.io.updateProgress(end - start);
+			}
+		} finally {
+			if ((this.runningIn.decrementAndGet() == 0)
+					&& (this.nextIn.get() >= this.countIn)
+					&& !this.deserialReported.getAndSet(true)) {
+				try {
+					deserialize();
+				} catch (final IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks if a record of valid length starts at given offset. Records are
+	 * stored between header and offset table.
+	 */
+	private final boolean isRecord(final ByteBuffer view, long offset) {
+		if ((offset < HEADER_SIZE)
+				|| ((offset + (Integer.SIZE / 8)) > this.tableOffsetIn)) {
+			return false;
+		}
+		final int length = view.getInt((int) offset);
+		return (length >= (Integer.SIZE / 8))
+				&& ((offset + length) <= this.tableOffsetIn);
+	}
+
+	private final SongDataEntry parseRecord(final ByteBuffer view) {
+		view.getInt(); // length of record
+		final byte[] name = new byte[view.getInt()];
+		view.get(name);
+		final long mod = view.getLong();
+		final Path path = this.root.resolve(new String(name, FileSystem.UTF8)
+				.split("/"));
+		final int voicesCount = view.getInt();
+		final Map<Integer, String> voices = new TreeMap<>();
+		for (int i = 0; i < voicesCount; ++i) {
+			final int id = view.getInt();
+			final byte[] desc = new byte[view.getInt()];
+			view.get(desc);
+			voices.put(id, new String(desc, FileSystem.UTF8));
+		}
+		if (!this.dirIndex.isUnchanged(path, mod)) {
+			if (!path.exists()) {
+				Debug.print(path + " not existing");
+				return null;
+			}
+			if (path.toFile().lastModified() != mod) {
+				Debug.print(path + " changed");
+				return null;
+			}
+		}
+		return new SongDataEntry(path, voices, mod);
+	}
+
+	@Override
+	protected final void abort_() {
+		if (this.out != null) {
+			try {
+				this.out.close();
+			} catch (final IOException e) {
+				// Silently disregard the thrown exception
+			}
+		}
+		this.tmp.delete();
+	}
+
+	@Override
+	protected final void crawlDone_() {
+		return;
+	}
+
+	@Override
+	protected final void deserialize_() throws IOException {
+		// done by tasks of getDeserialTask()
+	}
+
+	@Override
+	protected final void finish_() {
+		if (this.out == null) {
+			return;
+		}
+		try {
+			final long tableOffset;
+			final long dirIndexOffset;
+			synchronized (this.outBuffer) {
+				tableOffset = this.outPosition;
+				for (int i = 0; i < this.count; ++i) {
+					if (this.outBuffer.remaining() < (Long.SIZE / 8)) {
+						flush();
+					}
+					this.outBuffer.putLong(this.offsets[i]);
+				}
+				flush();
+				dirIndexOffset = tableOffset
+						+ ((long) this.count * (Long.SIZE / 8));
+			}
+			final DataOutputStream dirOut = new DataOutputStream(
+					new BufferedOutputStream(Channels.newOutputStream(this.out)));
+			this.dirIndex.write(dirOut);
+
+			final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC);
+			header.putInt(this.count);
+			header.putLong(tableOffset);
+			header.putLong(dirIndexOffset);
+			header.flip();
+			while (header.hasRemaining()) {
+				this.out.write(header, header.position());
+			}
+			this.out.close();
+		} catch (final IOException e) {
+			Debug.print("Failed to write %s: %s\n", this.tmp, e.getMessage());
+			abort_();
+			return;
+		}
+		if (!this.tmp.renameTo(this.idx)) {
+			// the new store will be used on next run
+			Debug.print("Failed to replace %s, keeping %s\n", this.idx,
+					this.tmp);
+		}
+	}
+
+	@Override
+	protected final void generateStream(final SongDataEntry data)
+			throws IOException {
+		if (this.out == null) {
+			return;
+		}
+		final byte[] name = data.getPath().relativize(this.root)
+				.getBytes(FileSystem.UTF8);
+		final Map<Integer, String> voices = data.voices();
+		final byte[][] descs = new byte[voices.size()][];
+		int length = (2 * (Integer.SIZE / 8)) + name.length + (Long.SIZE / 8)
+				+ (Integer.SIZE / 8);
+		int i = 0;
+		for (final String desc : voices.values()) {
+			descs[i] = desc.getBytes(FileSystem.UTF8);
+			length += (2 * (Integer.SIZE / 8)) + descs[i++].length;
+		}
+		final ByteBuffer record = ByteBuffer.allocate(length);
+		record.putInt(length);
+		record.putInt(name.length);
+		record.put(name);
+		record.putLong(data.getLastModification());
+		record.putInt(voices.size());
+		i = 0;
+		for (final Integer id : voices.keySet()) {
+			record.putInt(id.intValue());
+			record.putInt(descs[i].length);
+			record.put(descs[i++]);
+		}
+		record.flip();
+		synchronized (this.outBuffer) {
+			if (this.count == this.offsets.length) {
+				this.offsets = Arrays.copyOf(this.offsets, 2 * this.count);
+			}
+			this.offsets[this.count++] = this.outPosition;
+			this.outPosition += length;
+			if (this.outBuffer.remaining() < length) {
+				flush();
+			}
+			if (length > this.outBuffer.capacity()) {
+				while (record.hasRemaining()) {
+					this.out.write(record);
+				}
+			} else {
+				this.outBuffer.put(record);
+			}
+		}
+	}
+}
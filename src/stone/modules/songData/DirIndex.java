@@ -0,0 +1,258 @@
+package stone.modules.songData;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import stone.util.Debug;
+import stone.util.Path;
+
+/**
+ * Index of the modification dates of all directories below the root of
+ * {@link Deserializer}. The index is stored along with the data of previous
+ * runs. A directory whose modification date did not
+ * change since last run has still the same entries, so the {@link Crawler}
+ * can take its sub-directories and songs from the index instead of listing
+ * and testing every entry.
+ * <p>
+ * Editing a song in place does not change the modification date of its
+ * directory on most file systems. A full rescan ignoring this index is needed
+ * to detect those changes.
+ *
+ * @author Nelphindal
+ */
+final class DirIndex {
+
+	/**
+	 * State of a single directory
+	 */
+	static final class Dir {
+		final long mod;
+		final String[] dirs;
+		final String[] files;
+		final long[] fileMods;
+
+		@SuppressWarnings("hiding")
+		Dir(long mod, final String[] dirs, final String[] files,
+				final long[] fileMods) {
+			this.mod = mod;
+			this.dirs = dirs;
+			this.files = files;
+			this.fileMods = fileMods;
+		}
+
+		final long getMod(final String file) {
+			for (int i = 0; i < this.files.length; ++i) {
+				if (this.files[i].equals(file)) {
+					return this.fileMods[i];
+				}
+			}
+			return -1;
+		}
+	}
+
+	/**
+	 * Name of the entry within the archive
+	 */
+	static final String ENTRY = "dir.map";
+
+	private static final int VERSION = 1;
+
+	private static final Dir CHANGED = new Dir(-1, null, null, null);
+
+	/**
+	 * Reads the index stored in given archive
+	 *
+	 * @param idx
+	 *            archive holding the data of previous runs
+	 * @param root
+	 *            the directory all stored paths are relative to
+	 * @return the read index, an empty index if <i>idx</i> contains none
+	 */
+	static final DirIndex read(final Path idx, final Path root) {
+		final DirIndex index = new DirIndex(root);
+		if (!idx.exists()) {
+			return index;
+		}
+		ZipFile zip = null;
+		try {
+			zip = new ZipFile(idx.toFile());
+			final ZipEntry entry = zip.getEntry(ENTRY);
+			if (entry == null) {
+				return index;
+			}
+			index.read(new DataInputStream(new BufferedInputStream(zip
+					.getInputStream(entry))));
+		} catch (final IOException e) {
+			Debug.print("Failed to read directory index: %s\n", e.getMessage());
+			index.dirsIn.clear();
+		} finally {
+			if (zip != null) {
+				try {
+					zip.close();
+				} catch (final IOException e) {
+					// Silently disregard the thrown exception
+				}
+			}
+		}
+		return index;
+	}
+
+	private final Path root;
+
+	private final Map<Path, Dir> dirsIn = new HashMap<>();
+
+	private final Map<Path, Dir> checked = new ConcurrentHashMap<>();
+
+	private final Map<Path, Dir> dirsOut = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates an empty index
+	 *
+	 * @param root
+	 *            the directory all stored paths are relative to
+	 */
+	DirIndex(@SuppressWarnings("hiding") final Path root) {
+		this.root = root;
+	}
+
+	/**
+	 * Reads a stored index from given stream.
+	 *
+	 * @param in
+	 *            stream to read from
+	 * @throws IOException
+	 *             if an I/O-Error occurs
+	 */
+	final void read(final DataInputStream in) throws IOException {
+		if (in.readInt() != VERSION) {
+			return;
+		}
+		final int size = in.readInt();
+		for (int i = 0; i < size; ++i) {
+			final String name = in.readUTF();
+			final long mod = in.readLong();
+			final String[] dirs = new String[in.readInt()];
+			for (int j = 0; j < dirs.length; ++j) {
+				dirs[j] = in.readUTF();
+			}
+			final String[] files = new String[in.readInt()];
+			final long[] fileMods = new long[files.length];
+			for (int j = 0; j < files.length; ++j) {
+				files[j] = in.readUTF();
+				fileMods[j] = in.readLong();
+			}
+			final Path dir = name.isEmpty() ? this.root : this.root
+					.resolve(name.split("/"));
+			this.dirsIn.put(dir, new Dir(mod, dirs, files, fileMods));
+		}
+	}
+
+	/**
+	 * Checks if the stored data for given song can be used without looking at
+	 * the file itself.
+	 *
+	 * @param song
+	 *            a song found in the data of previous run
+	 * @param mod
+	 *            the stored modification date of <i>song</i>
+	 * @return <i>true</i> if the directory of <i>song</i> is unchanged and
+	 *         listed <i>song</i> with <i>mod</i>
+	 */
+	final boolean isUnchanged(final Path song, long mod) {
+		final Dir dir = lookupUnchanged(song.getParent());
+		return (dir != null) && (dir.getMod(song.getFilename()) == mod);
+	}
+
+	/**
+	 * Returns the stored state of given directory if the directory has not
+	 * been modified since the index has been written. The modification date of
+	 * each directory is looked up only once.
+	 *
+	 * @param dir
+	 *            directory to look up
+	 * @return the stored state or <i>null</i> if <i>dir</i> is unknown or
+	 *         modified
+	 */
+	final Dir lookupUnchanged(final Path dir) {
+		final Dir stored = this.dirsIn.get(dir);
+		if (stored == null) {
+			return null;
+		}
+		Dir result = this.checked.get(dir);
+		if (result == null) {
+			result = stored.mod == dir.toFile().lastModified() ? stored
+					: CHANGED;
+			this.checked.put(dir, result);
+		}
+		return result == CHANGED ? null : result;
+	}
+
+	/**
+	 * Records the state of a directory for the index of the next run.
+	 *
+	 * @param dir
+	 *            visited directory
+	 * @param state
+	 *            the found state
+	 */
+	final void record(final Path dir, final Dir state) {
+		this.dirsOut.put(dir, state);
+	}
+
+	/**
+	 * Writes all recorded directories to given file.
+	 *
+	 * @param file
+	 *            file to write to
+	 * @throws IOException
+	 *             if an I/O-Error occurs
+	 */
+	final void write(final File file) throws IOException {
+		final DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			write(out);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes all recorded directories to given stream.
+	 *
+	 * @param out
+	 *            stream to write to
+	 * @throws IOException
+	 *             if an I/O-Error occurs
+	 */
+	final void write(final DataOutputStream out) throws IOException {
+		out.writeInt(VERSION);
+		out.writeInt(this.dirsOut.size());
+		for (final Map.Entry<Path, Dir> entry : this.dirsOut.entrySet()) {
+			final Path dir = entry.getKey();
+			final Dir state = entry.getValue();
+			out.writeUTF(dir == this.root ? "" : dir.relativize(this.root));
+			out.writeLong(state.mod);
+			out.writeInt(state.dirs.length);
+			for (final String name : state.dirs) {
+				out.writeUTF(name);
+			}
+			out.writeInt(state.files.length);
+			for (int i = 0; i < state.files.length; ++i) {
+				out.writeUTF(state.files[i]);
+				out.writeLong(state.fileMods[i]);
+			}
+		}
+		out.flush();
+	}
+}
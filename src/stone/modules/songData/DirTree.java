@@ -2,8 +2,12 @@ package stone.modules.songData;
 
 import java.util.ArrayDeque;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import stone.util.Path;
@@ -11,17 +15,26 @@ import stone.util.Path;
 /**
  * Data structure to store {#link SongDataEntry} and to sort them by the
  * directory structure
+ * <p>
+ * All nodes are kept in concurrent sorted maps and can be read and modified by
+ * any number of threads without locking. Each node is registered by its
+ * interned {@link Path}, so looking up the directory of a song is a single
+ * hash lookup in the common case. Iterators are weakly consistent.
  * 
  * @author Nelphindal
  * 
  */
 public final class DirTree {
 
-	private final String name;
+	private final static long FNV_OFFSET = 0xcbf29ce484222325L;
+	private final static long FNV_PRIME = 0x100000001b3L;
+
 	private final AtomicInteger size = new AtomicInteger(0);
+	private final ConcurrentMap<Path, DirTree> nodes;
+	private final Path path;
 	final Path base;
-	final TreeMap<String, DirTree> directories = new TreeMap<>();
-	final TreeMap<String, SongDataEntry> files = new TreeMap<>();
+	final ConcurrentNavigableMap<String, DirTree> directories = new ConcurrentSkipListMap<>();
+	final ConcurrentNavigableMap<String, SongDataEntry> files = new ConcurrentSkipListMap<>();
 	final DirTree parent;
 
 	/**
@@ -32,15 +45,18 @@ public final class DirTree {
 	 */
 	public DirTree(@SuppressWarnings("hiding") final Path base) {
 		this.parent = null;
-		this.name = null;
+		this.path = base;
 		this.base = base;
+		this.nodes = new ConcurrentHashMap<>();
+		this.nodes.put(base, this);
 	}
 
 	private DirTree(@SuppressWarnings("hiding") final DirTree parent,
-			@SuppressWarnings("hiding") final String name) {
+			@SuppressWarnings("hiding") final Path path) {
 		this.base = parent.base;
+		this.nodes = parent.nodes;
 		this.parent = parent;
-		this.name = name;
+		this.path = path;
 	}
 
 	/**
@@ -50,10 +66,9 @@ public final class DirTree {
 	 */
 	public final Iterator<Path> dirsIterator() {
 		return new Iterator<Path>() {
-			private DirTree currentTree = walkTo(DirTree.this.base);
-			private Iterator<String> iter = this.currentTree.directories
-					.keySet().iterator();
-			private final ArrayDeque<Iterator<String>> iterStack = new ArrayDeque<>();
+			private Iterator<DirTree> iter = walkTo(DirTree.this.base).directories
+					.values().iterator();
+			private final ArrayDeque<Iterator<DirTree>> iterStack = new ArrayDeque<>();
 
 			@Override
 			public boolean hasNext() {
@@ -65,22 +80,16 @@ public final class DirTree {
 						return false;
 					}
 					// pop
-					this.currentTree = this.currentTree.parent;
 					this.iter = this.iterStack.removeLast();
 				}
 			}
 
 			@Override
 			public Path next() {
-				final String next = this.iter.next();
-				final Path ret = this.currentTree.buildPath().resolve(next);
-				if (this.currentTree.directories.get(next) != null) {
-					this.iterStack.add(this.iter);
-					this.currentTree = this.currentTree.directories.get(next);
-					this.iter = this.currentTree.directories.keySet()
-							.iterator();
-				}
-				return ret;
+				final DirTree next = this.iter.next();
+				this.iterStack.add(this.iter);
+				this.iter = next.directories.values().iterator();
+				return next.path;
 			}
 
 			@Override
@@ -99,12 +108,12 @@ public final class DirTree {
 		return new Iterator<Path>() {
 
 			private DirTree currentTree = walkTo(DirTree.this.base);
-			private Iterator<String> dirIter = this.currentTree.directories
-					.keySet().iterator();
-			private Iterator<String> fileIter = this.currentTree.files.keySet()
-					.iterator();
-			private final ArrayDeque<Iterator<String>> dirIterStack = new ArrayDeque<>();
-			private final ArrayDeque<Iterator<String>> fileIterStack = new ArrayDeque<>();
+			private Iterator<DirTree> dirIter = this.currentTree.directories
+					.values().iterator();
+			private Iterator<SongDataEntry> fileIter = this.currentTree.files
+					.values().iterator();
+			private final ArrayDeque<Iterator<DirTree>> dirIterStack = new ArrayDeque<>();
+			private final ArrayDeque<Iterator<SongDataEntry>> fileIterStack = new ArrayDeque<>();
 
 			@Override
 			public boolean hasNext() {
@@ -113,17 +122,13 @@ public final class DirTree {
 						return true;
 					}
 					if (this.dirIter.hasNext()) {
-						final String nextDir = this.dirIter.next();
-						if (this.currentTree.directories.get(nextDir) != null) {
-							this.dirIterStack.add(this.dirIter);
-							this.fileIterStack.add(this.fileIter);
-							this.currentTree = this.currentTree.directories
-									.get(nextDir);
-							this.dirIter = this.currentTree.directories
-									.keySet().iterator();
-							this.fileIter = this.currentTree.files.keySet()
-									.iterator();
-						}
+						this.dirIterStack.add(this.dirIter);
+						this.fileIterStack.add(this.fileIter);
+						this.currentTree = this.dirIter.next();
+						this.dirIter = this.currentTree.directories.values()
+								.iterator();
+						this.fileIter = this.currentTree.files.values()
+								.iterator();
 						continue;
 					}
 					if (this.dirIterStack.isEmpty()) {
@@ -138,8 +143,7 @@ public final class DirTree {
 
 			@Override
 			public Path next() {
-				final String next = this.fileIter.next();
-				return this.currentTree.buildPath().resolve(next);
+				return this.fileIter.next().getPath();
 			}
 
 			@Override
@@ -150,6 +154,17 @@ public final class DirTree {
 		};
 	}
 
+	/**
+	 * Computes a hash over the names of all directories and files, the
+	 * modification dates and the voices of all stored songs. Two trees with
+	 * the same fingerprint produce most likely the same SongbookData.
+	 * 
+	 * @return the computed fingerprint
+	 */
+	public final long fingerprint() {
+		return fingerprint(FNV_OFFSET);
+	}
+
 	/**
 	 * 
 	 * @param path
@@ -158,9 +173,10 @@ public final class DirTree {
 	 */
 	public final SongDataEntry get(final Path path) {
 		final DirTree tree = walkTo(path.getParent());
-		synchronized (tree) {
-			return tree.files.get(path.getFilename());
+		if (tree == null) {
+			return null;
 		}
+		return tree.files.get(path.getFilename());
 	}
 
 	/**
@@ -194,31 +210,67 @@ public final class DirTree {
 	 * @return {@link Path} to which all returned paths are relative to
 	 */
 	public final Path getRoot() {
-		if (this.parent != null) {
-			return this.parent.getRoot();
-		}
 		return this.base;
 	}
 
+	private final static long hash(long hash, long value) {
+		long h = hash;
+		for (int i = 0; i < Long.SIZE; i += Byte.SIZE) {
+			h = (h ^ ((value >>> i) & 0xff)) * FNV_PRIME;
+		}
+		return h;
+	}
+
+	private final static long hash(long hash, final String value) {
+		long h = hash;
+		for (int i = 0; i < value.length(); ++i) {
+			h = (h ^ value.charAt(i)) * FNV_PRIME;
+		}
+		return hash(h, value.length());
+	}
+
+	private final long fingerprint(long hash) {
+		long h = hash;
+		for (final SongDataEntry song : this.files.values()) {
+			h = hash(h, song.getPath().getFilename());
+			h = hash(h, song.getLastModification());
+			for (final Map.Entry<Integer, String> voice : song.voices()
+					.entrySet()) {
+				h = hash(h, voice.getKey().intValue());
+				h = hash(h, voice.getValue());
+			}
+			h = hash(h, -1);
+		}
+		for (final Map.Entry<String, DirTree> dir : this.directories
+				.entrySet()) {
+			h = hash(h, dir.getKey());
+			h = dir.getValue().fingerprint(h);
+		}
+		return hash(h, -2);
+	}
+
 	private final void add(final SongDataEntry songdata) {
 		final Path path = songdata.getPath();
 		final DirTree t = walkTo(path.getParent());
 		if (t == null) {
 			return;
 		}
-		synchronized (t) {
-			final SongDataEntry sd = t.files.get(path.getFilename());
+		final String filename = path.getFilename();
+		while (true) {
+			final SongDataEntry sd = t.files.putIfAbsent(filename, songdata);
 			if (sd == null) {
-				t.files.put(path.getFilename(), songdata);
-			} else if (sd.getLastModification() < songdata
-					.getLastModification()) {
-				t.files.put(path.getFilename(), songdata);
-			} else {
+				break;
+			}
+			if (sd.getLastModification() >= songdata.getLastModification()) {
 				synchronized (AbtractEoWInAbc.messages) {
 					AbtractEoWInAbc.messages.remove(path);
 				}
 				return;
 			}
+			if (t.files.replace(filename, sd, songdata)) {
+				// replaced an older entry, number of files is unchanged
+				return;
+			}
 		}
 		for (DirTree tree = t; tree != null; tree = tree.parent) {
 			tree.size.incrementAndGet();
@@ -226,10 +278,7 @@ public final class DirTree {
 	}
 
 	final Path buildPath() {
-		if (this.parent == null) {
-			return this.base;
-		}
-		return this.parent.buildPath().resolve(this.name);
+		return this.path;
 	}
 
 	final int[] getCountIn(final Path path) {
@@ -241,31 +290,34 @@ public final class DirTree {
 		add(songData);
 	}
 
+	/**
+	 * Looks up the node of given directory, missing nodes are created.
+	 * 
+	 * @return the node or <i>null</i> if <i>path</i> is not located below the
+	 *         root
+	 */
 	final DirTree walkTo(final Path path) {
 		if (path == null) {
 			return null;
 		}
-		DirTree t = this;
-		if (path == this.base) {
+		final DirTree t = this.nodes.get(path);
+		if (t != null) {
 			return t;
 		}
-		final String[] walkingPath = path.relativize(this.base).split("/");
-		int layer = 0;
-		while (layer < walkingPath.length) {
-			final String base_ = walkingPath[layer++];
-			final DirTree last = t;
-			t = t.directories.get(base_);
-			if (t == null) {
-				t = last;
-				synchronized (t) {
-					t = t.directories.get(base_);
-					if (t == null) {
-						t = new DirTree(last, base_);
-						last.directories.put(base_, t);
-					}
-				}
-			}
+		if (path.getNameCount() <= this.base.getNameCount()) {
+			return null;
+		}
+		final DirTree last = walkTo(path.getParent());
+		if (last == null) {
+			return null;
+		}
+		final DirTree created = new DirTree(last, path);
+		final DirTree present = last.directories.putIfAbsent(
+				path.getFilename(), created);
+		if (present != null) {
+			return present;
 		}
-		return t;
+		this.nodes.put(path, created);
+		return created;
 	}
 }
@@ -25,6 +25,18 @@ public class ModEntry implements Entry<Path, Long> {
 		this.mod = path.toFile().lastModified();
 	}
 
+	/**
+	 * @param path
+	 *            -
+	 * @param mod
+	 *            the known modification date of <i>path</i>
+	 */
+	@SuppressWarnings("hiding")
+	ModEntry(final Path path, long mod) {
+		this.path = path;
+		this.mod = mod;
+	}
+
 	private ModEntry() {
 		this.path = null;
 		this.mod = 0;
@@ -0,0 +1,262 @@
+package stone.modules.songData;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.CoderResult;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import stone.io.ExceptionHandle;
+import stone.io.IOHandler;
+import stone.util.FileSystem;
+import stone.util.Path;
+
+/**
+ * Writes the SongbookData.plugindata for all songs of a {@link DirTree}. The
+ * directories are split into chunks of consecutive directories, each chunk is
+ * rendered by its own task into pooled buffers. All buffers are written in
+ * order by one gathering write.
+ *
+ * @author Nelphindal
+ */
+public final class PluginDataWriter {
+
+	private final class Chunk extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<DirTree> dirs = new ArrayList<>();
+		private final List<ByteBuffer> buffers = new ArrayList<>();
+		private final int firstIdx;
+		private int songs;
+
+		Chunk(@SuppressWarnings("hiding") int firstIdx) {
+			this.firstIdx = firstIdx;
+		}
+
+		@Override
+		protected final void compute() {
+			final StringBuilder sb = new StringBuilder();
+			final CharsetEncoder encoder = createEncoder();
+			int songIdx = this.firstIdx;
+			for (final DirTree dir : this.dirs) {
+				final Path path = dir.buildPath();
+				final String dirName = path == PluginDataWriter.this.root ? ""
+						: path.relativize(PluginDataWriter.this.root) + "/";
+				for (final Map.Entry<String, SongDataEntry> file : dir.files
+						.entrySet()) {
+					final String filename = file.getKey();
+					sb.setLength(0);
+					if (songIdx == 1) {
+						sb.append("\t{\r\n");
+					} else {
+						sb.append("\t\t},\r\n");
+					}
+					sb.append("\t\t[");
+					sb.append(songIdx++);
+					sb.append("] =\r\n\t\t{\r\n");
+					sb.append("\t\t\t[\"Filepath\"] = \"/");
+					sb.append(dirName);
+					sb.append("\",\r\n\t\t\t[\"Filename\"] = \"");
+					sb.append(filename, 0, filename.lastIndexOf("."));
+					sb.append("\",\r\n\t\t\t[\"Tracks\"] = \r\n");
+					file.getValue().appendPluginData(sb);
+					encode(encoder, sb, this.buffers);
+				}
+			}
+			PluginDataWriter.this.io.updateProgress(this.songs);
+		}
+	}
+
+	private static final int BUFFER_SIZE = 0x8000;
+	private static final int CHUNK_SIZE = 256;
+	private static final int POOL_SIZE = 256;
+
+	private static final ConcurrentLinkedQueue<ByteBuffer> pool = new ConcurrentLinkedQueue<>();
+
+	private final static CharsetEncoder createEncoder() {
+		// same encoding as String.getBytes() used by IOHandler.write()
+		return FileSystem.DEFAULT_CHARSET.newEncoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	private final static void encode(final CharsetEncoder encoder,
+			final CharSequence cs, final List<ByteBuffer> buffers) {
+		final CharBuffer in = CharBuffer.wrap(cs);
+		if (buffers.isEmpty()) {
+			buffers.add(take());
+		}
+		ByteBuffer out = buffers.get(buffers.size() - 1);
+		encoder.reset();
+		while (true) {
+			final CoderResult result = encoder.encode(in, out, true);
+			if (result.isOverflow()) {
+				out = take();
+				buffers.add(out);
+				continue;
+			}
+			if (encoder.flush(out).isOverflow()) {
+				out = take();
+				buffers.add(out);
+				encoder.flush(out);
+			}
+			return;
+		}
+	}
+
+	private final static ByteBuffer take() {
+		final ByteBuffer buffer = PluginDataWriter.pool.poll();
+		if (buffer == null) {
+			return ByteBuffer.allocateDirect(BUFFER_SIZE);
+		}
+		return buffer;
+	}
+
+	private final static void release(final List<ByteBuffer> buffers) {
+		for (final ByteBuffer buffer : buffers) {
+			if (PluginDataWriter.pool.size() >= POOL_SIZE) {
+				return;
+			}
+			buffer.clear();
+			PluginDataWriter.pool.add(buffer);
+		}
+	}
+
+	private final DirTree tree;
+	private final Path root;
+	private final IOHandler io;
+
+	/**
+	 * @param tree
+	 *            the songs to write
+	 * @param io
+	 *            {@link IOHandler} to report progress and errors to
+	 */
+	public PluginDataWriter(@SuppressWarnings("hiding") final DirTree tree,
+			@SuppressWarnings("hiding") final IOHandler io) {
+		this.tree = tree;
+		this.root = tree.getRoot();
+		this.io = io;
+	}
+
+	/**
+	 * Writes all songs to given file. Pre-existing content of the file is
+	 * discarded.
+	 *
+	 * @param file
+	 *            file to write to
+	 */
+	public final void write(final File file) {
+		final List<Chunk> chunks = new ArrayList<>();
+		final List<ByteBuffer> head = new ArrayList<>();
+		final List<ByteBuffer> tail = new ArrayList<>();
+		final CharsetEncoder encoder = createEncoder();
+		final StringBuilder sb = new StringBuilder();
+
+		// head and section dirs
+		sb.append("return\r\n{\r\n");
+		sb.append("\t[\"Directories\"] =\r\n\t{\r\n");
+		final Iterator<Path> dirIterator = this.tree.dirsIterator();
+		if (dirIterator.hasNext()) {
+			sb.append("\t\t[1] = \"/\"");
+			for (int dirIdx = 2; dirIterator.hasNext(); dirIdx++) {
+				sb.append(",\r\n");
+				sb.append("\t\t[");
+				sb.append(dirIdx);
+				sb.append("] = \"/");
+				sb.append(dirIterator.next().relativize(this.root));
+				sb.append("/\"");
+			}
+			sb.append("\r\n");
+		}
+		sb.append("\t},\r\n");
+		sb.append("\t[\"Songs\"] =\r\n");
+		encode(encoder, sb, head);
+
+		// section songs
+		split(this.tree, chunks, new Chunk(1));
+		final ForkJoinPool forkJoinPool = new ForkJoinPool();
+		try {
+			forkJoinPool.invoke(new RecursiveAction() {
+
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected final void compute() {
+					invokeAll(chunks);
+				}
+			});
+		} finally {
+			forkJoinPool.shutdown();
+		}
+
+		// tail
+		sb.setLength(0);
+		sb.append("\t\t}\r\n");
+		sb.append("\t}\r\n");
+		sb.append("}");
+		encode(encoder, sb, tail);
+
+		final List<ByteBuffer> buffers = new ArrayList<>(head);
+		for (final Chunk chunk : chunks) {
+			buffers.addAll(chunk.buffers);
+		}
+		buffers.addAll(tail);
+		final ByteBuffer[] array = new ByteBuffer[buffers.size()];
+		long size = 0;
+		for (int i = 0; i < array.length; ++i) {
+			array[i] = buffers.get(i);
+			array[i].flip();
+			size += array[i].remaining();
+		}
+		try (final FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (size > 0) {
+				size -= channel.write(array);
+			}
+		} catch (final IOException e) {
+			this.io.handleException(ExceptionHandle.TERMINATE, e);
+		} finally {
+			release(buffers);
+		}
+	}
+
+	/**
+	 * Adds the directories of <i>dir</i> in the order of
+	 * {@link DirTree#filesIterator()} to the chunks, starting with
+	 * <i>current</i>.
+	 *
+	 * @return the chunk to continue with
+	 */
+	private final Chunk split(final DirTree dir, final List<Chunk> chunks,
+			final Chunk current) {
+		Chunk chunk = current;
+		if (!dir.files.isEmpty()) {
+			if (chunk.songs >= CHUNK_SIZE) {
+				chunk = new Chunk(chunk.firstIdx + chunk.songs);
+			}
+			if (chunk.dirs.isEmpty()) {
+				chunks.add(chunk);
+			}
+			chunk.dirs.add(dir);
+			chunk.songs += dir.files.size();
+		}
+		for (final DirTree sub : dir.directories.values()) {
+			chunk = split(sub, chunks, chunk);
+		}
+		return chunk;
+	}
+}
@@ -1,15 +1,12 @@
 package stone.modules.songData;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.TreeMap;
 
 import stone.MasterThread;
 import stone.io.ExceptionHandle;
 import stone.io.IOHandler;
-import stone.io.InputStream;
 import stone.util.Debug;
-import stone.util.FileSystem;
 import stone.util.Path;
 
 /**
@@ -19,32 +16,39 @@ import stone.util.Path;
  */
 public final class Scanner implements Runnable {
 
-	private static final String clean(final String desc) {
-		final StringBuilder result = new StringBuilder();
-		int pos = 0;
+	/**
+	 * Removes in place all characters the SongbookPlugin cannot display and
+	 * escapes quotes. A backslash is removed along with the following
+	 * character.
+	 */
+	private static final String clean(final StringBuilder desc) {
+		int w = 0;
 		for (int i = 0; i < desc.length(); i++) {
 			final char c = desc.charAt(i);
 			if (c == '\\') {
-				result.append(desc.substring(pos, i));
-				pos = i += 2;
+				i += 2;
+				if (i < desc.length()) {
+					desc.setCharAt(w++, desc.charAt(i));
+				}
 			} else if (c == '"') {
-				result.append(desc.substring(pos, i));
-				result.append("\\\"");
-				pos = i + 1;
+				if (w == i) {
+					desc.insert(i++, '\\');
+					w = i + 1;
+				} else {
+					desc.setCharAt(w++, '\\');
+					desc.setCharAt(w++, '"');
+				}
 			} else if (((c >= ' ') && (c <= ']' /*
 												 * including uppercased chars
 												 * and digits
 												 */))
 					|| ((c >= 'a') && (c <= 'z'))
 					|| ((c > (char) 127) && (c < (char) 256))) {
-				continue;
-			} else {
-				result.append(desc.substring(pos, i));
-				pos = i + 1;
+				desc.setCharAt(w++, c);
 			}
 		}
-		result.append(desc.substring(pos));
-		return result.toString();
+		desc.setLength(w);
+		return desc.toString();
 	}
 
 	private final IOHandler io;
@@ -55,6 +59,8 @@ public final class Scanner implements Runnable {
 
 	private final Deserializer sdd;
 
+	private final long headerBudget;
+
 	/**
 	 * @param master
 	 *            -
@@ -62,25 +68,32 @@ public final class Scanner implements Runnable {
 	 *            -
 	 * @param tree
 	 *            -
+	 * @param headerBudget
+	 *            number of bytes to read after the last X: line of a song
+	 *            before skipping the rest of the file, 0 to read always the
+	 *            complete file
 	 */
 	@SuppressWarnings("hiding")
 	public Scanner(MasterThread master, final Deserializer sdd,
-			final DirTree tree) {
+			final DirTree tree, long headerBudget) {
 		this.io = sdd.getIO();
 		this.tree = tree;
 		this.master = master;
 		this.sdd = sdd;
+		this.headerBudget = headerBudget;
 	}
 
 	/** */
 	@Override
 	public final void run() {
-		while (!this.master.isInterrupted() && parseSongs()) {
+		final AbcHeaderReader reader = new AbcHeaderReader(this.headerBudget);
+		while (!this.master.isInterrupted() && parseSongs(reader)) {
 			;
 		}
 	}
 
-	private final SongDataEntry getVoices(final ModEntry song) {
+	private final SongDataEntry getVoices(final ModEntry song,
+			final AbcHeaderReader reader) {
 		final SongDataEntry songdata = this.tree.get(song.getKey());
 		if ((songdata == null)
 				|| (songdata.getLastModification() != song.getValue())) {
@@ -91,101 +104,80 @@ public final class Scanner implements Runnable {
 			}
 			final Path songFile = song.getKey();
 
-			final Map<String, String> voices = new HashMap<>();
-			final InputStream songContent = this.io.openIn(songFile.toFile(),
-					FileSystem.DEFAULT_CHARSET);
+			final TreeMap<Integer, String> voices = new TreeMap<>();
+			try {
+				reader.open(songFile);
+			} catch (final IOException e) {
+				this.io.handleException(ExceptionHandle.TERMINATE, e);
+				return null;
+			}
 
 			try {
 				// you can expect T: after X: line, if enforcing abc-syntax
-				String line;
-				try {
-					line = songContent.readLine();
-				} catch (final IOException e) {
-					this.io.handleException(ExceptionHandle.TERMINATE, e);
-					return null;
-				}
 				boolean error = false;
-				int lineNumber = 1;
+				int line = reader.nextLine();
 
-				while (line != null) {
+				while (line != AbcHeaderReader.END) {
 					// search for important lines
-					if (line.startsWith("X:")) {
-						final int lineNumberOfX = lineNumber;
-						final String voiceId = line.substring(
-								line.indexOf(":") + 1).trim();
-						try {
-							line = songContent.readLine();
-							++lineNumber;
-						} catch (final IOException e) {
-							this.io.handleException(ExceptionHandle.TERMINATE,
-									e);
-						}
-						if ((line == null) || !line.startsWith("T:")) {
-							new MissingTLineInAbc(song.getKey(), lineNumber);
+					if (line == AbcHeaderReader.X) {
+						final int lineNumberOfX = reader.lineNumber();
+						final int voiceId = reader.voiceId();
+						line = reader.nextLine();
+						if (line != AbcHeaderReader.T) {
+							new MissingTLineInAbc(song.getKey(),
+									reader.lineNumber());
 							error = true;
-							if (line == null) {
-								break;
-							}
+							continue;
+						}
+						final StringBuilder desc = reader.title();
+						reader.appendValue(desc);
+						while ((line = reader.nextLine()) == AbcHeaderReader.T) {
+							desc.append(" ");
+							new MultipleTLinesInAbc(reader.lineNumber(),
+									song.getKey());
+							reader.appendValue(desc);
 						}
-						final StringBuilder desc = new StringBuilder();
-						do {
-							desc.append(line.substring(line.indexOf(":") + 1)
-									.trim());
-							try {
-								line = songContent.readLine();
-								++lineNumber;
-							} catch (final IOException e) {
-								this.io.handleException(
-										ExceptionHandle.TERMINATE, e);
-							}
-							if (line == null) {
-								break;
-							}
-							if (line.startsWith("T:")) {
-								desc.append(" ");
-								new MultipleTLinesInAbc(lineNumber,
-										song.getKey());
-							} else {
-								break;
-							}
-						} while (true);
 						if (desc.length() >= 65) {
 							new LongTitleInAbc(song.getKey(), lineNumberOfX);
 						}
-						voices.put(voiceId, Scanner.clean(desc.toString()));
+						if (voiceId < 0) {
+							Debug.print("%s: invalid X: line %d\n", song
+									.getKey().toString(), lineNumberOfX);
+							error = true;
+							continue;
+						}
+						voices.put(voiceId, Scanner.clean(desc));
 						continue;
-					} else if (line.startsWith("T:")) {
-						new NoXLineInAbc(song.getKey(), lineNumber);
+					} else if (line == AbcHeaderReader.T) {
+						new NoXLineInAbc(song.getKey(), reader.lineNumber());
 						error = true;
 					}
-					try {
-						line = songContent.readLine();
-						++lineNumber;
-					} catch (final IOException e) {
-						this.io.handleException(ExceptionHandle.TERMINATE, e);
-					}
+					line = reader.nextLine();
 				}
 				if (error) {
 					return null;
 				}
-				if (voices.isEmpty()) {
-					this.io.printError(String.format("Warning: %-50s %s", song
-							.getKey().toString(), "has no voices\n"), true);
-				}
-				final SongDataEntry sd = SongDataEntry.create(song, voices);
-				synchronized (song) {
-					this.tree.put(sd);
-				}
-
-				return sd;
+			} catch (final IOException e) {
+				this.io.handleException(ExceptionHandle.TERMINATE, e);
+				return null;
 			} finally {
-				this.io.close(songContent);
+				reader.close();
+			}
+			if (voices.isEmpty()) {
+				this.io.printError(String.format("Warning: %-50s %s", song
+						.getKey().toString(), "has no voices\n"), true);
+			}
+			final SongDataEntry sd = new SongDataEntry(song.getKey(), voices,
+					song.getValue().longValue());
+			synchronized (song) {
+				this.tree.put(sd);
 			}
+			return sd;
 		}
 		return songdata;
 	}
 
-	private final boolean parseSongs() {
+	private final boolean parseSongs(final AbcHeaderReader reader) {
 		final ModEntry song;
 		synchronized (this.sdd) {
 			song = this.sdd.pollFromQueue();
@@ -193,7 +185,7 @@ public final class Scanner implements Runnable {
 		if (song == null) {
 			return false;
 		}
-		final SongDataEntry voices = getVoices(song);
+		final SongDataEntry voices = getVoices(song, reader);
 		if (voices == null) {
 			Debug.print("\n" + song.getKey() + " is not strict abc\n");
 			return true;
@@ -69,22 +69,21 @@ public class SongDataEntry {
 	}
 
 	/**
-	 * Encodes this entry to a format use for the Songbook plugin by Chiran
+	 * Appends the same as {@link #toPluginData()} to given builder.
 	 * 
-	 * @return string usable in SongbookData.plugindata for the Songbook plugin
-	 *         by Chiran
+	 * @param sb
+	 *            builder to append to
 	 */
-	public final String toPluginData() {
+	final void appendPluginData(final StringBuilder sb) {
 		int voiceIdx = 0;
-		final StringBuilder sb = new StringBuilder();
 		sb.append("\t\t\t{\r\n");
 		if (this.sortedVoices.isEmpty()) {
 			// no X:-line
 			sb.append("\t\t\t\t[");
-			sb.append(String.valueOf(++voiceIdx));
+			sb.append(++voiceIdx);
 			sb.append("] =\r\n\t\t\t\t{\r\n");
 			sb.append("\t\t\t\t\t[\"Id\"] = \"");
-			sb.append(String.valueOf(1));
+			sb.append(1);
 			sb.append("\",\r\n\t\t\t\t\t[\"Name\"] = \"");
 			sb.append("\"\r\n");
 		} else {
@@ -94,10 +93,10 @@ public class SongDataEntry {
 					sb.append("\t\t\t\t},\r\n");
 				}
 				sb.append("\t\t\t\t[");
-				sb.append(String.valueOf(++voiceIdx));
+				sb.append(++voiceIdx);
 				sb.append("] =\r\n\t\t\t\t{\r\n");
 				sb.append("\t\t\t\t\t[\"Id\"] = \"");
-				sb.append(voice.getKey().toString());
+				sb.append(voice.getKey().intValue());
 				sb.append("\",\r\n\t\t\t\t\t[\"Name\"] = \"");
 				sb.append(voice.getValue());
 				sb.append("\"\r\n");
@@ -105,6 +104,17 @@ public class SongDataEntry {
 		}
 		sb.append("\t\t\t\t}\r\n");
 		sb.append("\t\t\t}\r\n");
+	}
+
+	/**
+	 * Encodes this entry to a format use for the Songbook plugin by Chiran
+	 * 
+	 * @return string usable in SongbookData.plugindata for the Songbook plugin
+	 *         by Chiran
+	 */
+	public final String toPluginData() {
+		final StringBuilder sb = new StringBuilder();
+		appendPluginData(sb);
 		return sb.toString();
 	}
 
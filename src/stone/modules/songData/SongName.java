@@ -12,7 +12,7 @@ import java.util.TreeSet;
 
 import stone.io.ExceptionHandle;
 import stone.io.IOHandler;
-import stone.io.InputStream;
+import stone.io.MappedInputStream;
 import stone.util.Path;
 
 
@@ -373,7 +373,7 @@ public class SongName implements Map<Integer, String> {
 	}
 
 	private final void calculateDuration(final IOHandler io) {
-		final InputStream in = io.openIn(this.path.toFile());
+		final MappedInputStream in = io.openMapped(this.path.toFile());
 		double max = 0;
 		double quantity = 1;
 		double base = 0.125;
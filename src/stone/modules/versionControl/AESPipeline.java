@@ -0,0 +1,351 @@
+package stone.modules.versionControl;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntConsumer;
+
+import org.bouncycastle.crypto.engines.AESEngine;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.ObjectStream;
+
+import stone.io.IOHandler;
+import stone.util.TaskPool;
+
+/**
+ * Encrypts and decrypts files with AES. Each block of 16 bytes is processed
+ * on its own, and the last block of a file is filled up with spaces when
+ * encrypting. A byte order mark at the start of a file to encrypt is
+ * skipped.
+ * <p>
+ * Files and objects of a repository are read in chunks of up to 64 KiB
+ * through a channel. The chunks of several files are processed in parallel on
+ * the {@link TaskPool} in batches of about {@link #BATCH_SIZE} bytes, and each
+ * file is written by one gathering write. Up to {@link #MAX_WRITERS} files are
+ * written at the same time.
+ * </p>
+ *
+ * @author Nelphindal
+ */
+public final class AESPipeline {
+
+	private final static int BLOCK_SIZE = 16;
+
+	/** a multiple of {@link #BLOCK_SIZE} */
+	private final static int CHUNK_SIZE = 0x10000;
+
+	/** capacity of the chunks read before processing and writing them */
+	private final static long BATCH_SIZE = 32 << 20;
+
+	private final static int NUM_CPUS = Runtime.getRuntime()
+			.availableProcessors();
+
+	private final static int MAX_WRITERS = 4;
+
+	private final static byte[] BOM = { (byte) 0xef, (byte) 0xbb, (byte) 0xbf };
+
+	private final KeyParameter key;
+	private final TaskPool taskPool;
+	private final IOHandler io;
+
+	/**
+	 * @param key
+	 *            the AES key
+	 * @param taskPool
+	 *            pool to process the chunks on
+	 * @param io
+	 *            IOHandler to report the progress to, or <i>null</i>
+	 */
+	@SuppressWarnings("hiding")
+	public AESPipeline(final byte[] key, final TaskPool taskPool,
+			final IOHandler io) {
+		this.key = new KeyParameter(key);
+		this.taskPool = taskPool;
+		this.io = io;
+	}
+
+	/**
+	 * Chunks read but not processed yet, along with the files to write them
+	 * to.
+	 */
+	private final class Batch {
+
+		private final List<File> files = new ArrayList<>();
+		private final List<ByteBuffer[]> chunks = new ArrayList<>();
+		private final boolean encrypt;
+		private long size;
+
+		@SuppressWarnings("hiding")
+		Batch(boolean encrypt) {
+			this.encrypt = encrypt;
+		}
+
+		/**
+		 * Adds the chunks of a file. The batch is processed once the
+		 * capacity of its chunks reaches {@link AESPipeline#BATCH_SIZE}.
+		 */
+		final void add(final File target, final ByteBuffer[] fileChunks)
+				throws IOException {
+			this.files.add(target);
+			this.chunks.add(fileChunks);
+			for (final ByteBuffer chunk : fileChunks) {
+				this.size += chunk.capacity();
+			}
+			if (this.size >= BATCH_SIZE) {
+				flush();
+			}
+		}
+
+		/**
+		 * Processes and writes all chunks added so far.
+		 */
+		final void flush() throws IOException {
+			final List<ByteBuffer> all = new ArrayList<>();
+			for (final ByteBuffer[] fileChunks : this.chunks) {
+				for (final ByteBuffer chunk : fileChunks) {
+					all.add(chunk);
+				}
+			}
+			processChunks(all.toArray(new ByteBuffer[all.size()]),
+					this.encrypt);
+			writeAll(this.files, this.chunks);
+			this.files.clear();
+			this.chunks.clear();
+			this.size = 0;
+		}
+	}
+
+	/**
+	 * Encrypts or decrypts given files. A file may be its own target.
+	 * Progress is reported per written file.
+	 *
+	 * @param files
+	 *            map of the files to read to the files to write
+	 * @param encrypt
+	 *            encrypt else decrypt
+	 * @throws FileNotFoundException
+	 *             if any file to read does not exist. No file is written
+	 *             then.
+	 * @throws IOException
+	 *             if reading or writing any file fails or if the current
+	 *             thread has been interrupted
+	 */
+	public final void process(final Map<File, File> files, boolean encrypt)
+			throws IOException {
+		// check all inputs before the first batch is written
+		for (final File input : files.keySet()) {
+			if (!input.exists()) {
+				throw new FileNotFoundException(input.toString());
+			}
+		}
+		final Batch batch = new Batch(encrypt);
+		for (final Map.Entry<File, File> file : files.entrySet()) {
+			batch.add(file.getValue(), read(file.getKey(), encrypt));
+		}
+		batch.flush();
+	}
+
+	/**
+	 * Encrypts or decrypts given objects and writes them to given files. The
+	 * objects are read one after another while filling a batch, so not more
+	 * than one batch is held in memory. Progress is reported per written
+	 * file.
+	 *
+	 * @param reader
+	 *            reader to open the objects with
+	 * @param objects
+	 *            map of the files to write to the ids of the objects to
+	 *            process
+	 * @param encrypt
+	 *            encrypt else decrypt
+	 * @throws IOException
+	 *             if reading any object or writing any file fails or if the
+	 *             current thread has been interrupted
+	 */
+	public final void processObjects(final ObjectReader reader,
+			final Map<File, ObjectId> objects, boolean encrypt)
+			throws IOException {
+		final Batch batch = new Batch(encrypt);
+		for (final Map.Entry<File, ObjectId> object : objects.entrySet()) {
+			final ObjectLoader loader = reader.open(object.getValue());
+			try (final ObjectStream in = loader.openStream()) {
+				batch.add(object.getKey(), read(Channels.newChannel(in),
+						loader.getSize(), encrypt));
+			}
+		}
+		batch.flush();
+	}
+
+	/**
+	 * @return the capacity of a chunk for the next <i>remaining</i> bytes, at
+	 *         most {@link #CHUNK_SIZE} and a multiple of {@link #BLOCK_SIZE}
+	 */
+	private final static int chunkSize(long remaining) {
+		return (int) Math.min(CHUNK_SIZE, (remaining + BLOCK_SIZE - 1)
+				& -BLOCK_SIZE);
+	}
+
+	/**
+	 * Fills up an incomplete last block, with spaces when encrypting, and
+	 * flips given chunk.
+	 */
+	private final static void pad(final ByteBuffer chunk, boolean encrypt) {
+		final int rest = chunk.position() % BLOCK_SIZE;
+		if (rest != 0) {
+			final byte fill = encrypt ? (byte) ' ' : 0;
+			for (int i = rest; i < BLOCK_SIZE; ++i) {
+				chunk.put(fill);
+			}
+		}
+		chunk.flip();
+	}
+
+	private final static ByteBuffer[] read(final File file, boolean encrypt)
+			throws IOException {
+		try (final FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.READ)) {
+			return read(channel, channel.size(), encrypt);
+		}
+	}
+
+	/**
+	 * Reads the next <i>size</i> bytes of given channel into chunks. When
+	 * encrypting a leading byte order mark is skipped.
+	 */
+	private final static ByteBuffer[] read(final ReadableByteChannel channel,
+			long size, boolean encrypt) throws IOException {
+		final List<ByteBuffer> chunks = new ArrayList<>();
+		boolean checkBOM = encrypt;
+		long remaining = size;
+		while (remaining > 0) {
+			// the last chunk is only as large as the padded rest
+			final ByteBuffer chunk = ByteBuffer.allocate(chunkSize(remaining));
+			int read = 0;
+			while (chunk.hasRemaining()
+					&& ((read = channel.read(chunk)) >= 0)) {
+				remaining -= read;
+				if (checkBOM && (chunk.position() >= BOM.length)) {
+					checkBOM = false;
+					if ((chunk.get(0) == BOM[0]) && (chunk.get(1) == BOM[1])
+							&& (chunk.get(2) == BOM[2])) {
+						chunk.flip();
+						chunk.position(BOM.length);
+						chunk.compact();
+					}
+				}
+			}
+			if (read < 0) {
+				// the input has been truncated meanwhile
+				remaining = 0;
+			}
+			if (chunk.position() == 0) {
+				break;
+			}
+			pad(chunk, encrypt);
+			chunks.add(chunk);
+		}
+		return chunks.toArray(new ByteBuffer[chunks.size()]);
+	}
+
+	/**
+	 * Processes all blocks of given chunks in place. The chunks are claimed
+	 * one after another by the calling thread and by tasks of the
+	 * {@link TaskPool}, each thread with an engine of its own.
+	 */
+	private final void processChunks(final ByteBuffer[] chunks,
+			final boolean encrypt) throws IOException {
+		final ThreadLocal<AESEngine> engines = new ThreadLocal<AESEngine>() {
+
+			@Override
+			protected final AESEngine initialValue() {
+				final AESEngine engine = new AESEngine();
+				engine.init(encrypt, AESPipeline.this.key);
+				return engine;
+			}
+		};
+		final boolean done;
+		try {
+			done = this.taskPool.createGroup().forEach(chunks.length,
+					NUM_CPUS, new IntConsumer() {
+
+						@Override
+						public final void accept(int i) {
+							final AESEngine engine = engines.get();
+							final byte[] chunk = chunks[i].array();
+							final int length = chunks[i].limit();
+							for (int offset = 0; offset < length;) {
+								offset += engine.processBlock(chunk, offset,
+										chunk, offset);
+							}
+						}
+					});
+		} catch (final RuntimeException e) {
+			throw new IOException("Processing chunks failed", e);
+		}
+		if (!done) {
+			throw new InterruptedIOException();
+		}
+	}
+
+	/**
+	 * Writes the chunks of each file. The files are claimed one after another
+	 * by the calling thread and by up to {@link #MAX_WRITERS} - 1 tasks of an
+	 * I/O group of the {@link TaskPool}.
+	 */
+	private final void writeAll(final List<File> files,
+			final List<ByteBuffer[]> chunks) throws IOException {
+		final AtomicReference<IOException> failed = new AtomicReference<>();
+		final boolean done = this.taskPool.createIOGroup().forEach(
+				files.size(), MAX_WRITERS, new IntConsumer() {
+
+					@Override
+					public final void accept(int i) {
+						if (failed.get() != null) {
+							return;
+						}
+						try {
+							write(files.get(i), chunks.get(i));
+							if (AESPipeline.this.io != null) {
+								AESPipeline.this.io.updateProgress();
+							}
+						} catch (final IOException e) {
+							failed.compareAndSet(null, e);
+						}
+					}
+				});
+		if (failed.get() != null) {
+			throw failed.get();
+		}
+		if (!done) {
+			throw new InterruptedIOException();
+		}
+	}
+
+	private final static void write(final File file, final ByteBuffer[] chunks)
+			throws IOException {
+		try (final FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			long remaining = 0;
+			for (final ByteBuffer chunk : chunks) {
+				remaining += chunk.remaining();
+			}
+			while (remaining > 0) {
+				remaining -= channel.write(chunks);
+			}
+		}
+	}
+}
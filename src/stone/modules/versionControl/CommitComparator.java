@@ -23,6 +23,7 @@ public final class CommitComparator implements Comparator<RevCommit> {
 	class CommitHistoryParser {
 		private final RevWalk walk;
 		private final IOHandler io;
+		private final CommitGraph graph;
 		private final TreeSet<RevCommit> localList = new TreeSet<>(
 				CommitComparator.this), remoteList = new TreeSet<>(
 				CommitComparator.this);
@@ -32,14 +33,28 @@ public final class CommitComparator implements Comparator<RevCommit> {
 		private long diff, start, time;
 
 		@SuppressWarnings("hiding")
-		CommitHistoryParser(final RevWalk walk, final IOHandler io) {
+		CommitHistoryParser(final RevWalk walk, final IOHandler io,
+				final CommitGraph graph) {
 			this.io = io;
 			this.walk = walk;
+			this.graph = graph;
 		}
 
 		final RevCommit getParent(final RevCommit commitLocal,
 				final RevCommit commitRemote) throws MissingObjectException,
 				IncorrectObjectTypeException, IOException {
+			if (this.graph != null) {
+				final int local = this.graph.indexOf(commitLocal);
+				final int remote = this.graph.indexOf(commitRemote);
+				if ((local >= 0) && (remote >= 0)) {
+					final int parent = this.graph.getParent(local, remote);
+					if (parent < 0) {
+						Debug.print("rewritten history\n");
+						return null;
+					}
+					return this.walk.parseCommit(this.graph.getId(parent));
+				}
+			}
 			this.local = commitLocal;
 			this.remote = commitRemote;
 			this.localTime = this.local.getCommitTime();
@@ -121,7 +136,24 @@ public final class CommitComparator implements Comparator<RevCommit> {
 	 */
 	public final static CommitComparator init(final RevWalk walk,
 			final IOHandler io) {
-		return new CommitComparator(walk, io);
+		return new CommitComparator(walk, io, null);
+	}
+
+	/**
+	 * Creates a new comparator for commits, searching the history in given
+	 * graph if it contains the searched commits
+	 * 
+	 * @param walk
+	 *            -
+	 * @param io
+	 *            -
+	 * @param graph
+	 *            -
+	 * @return the creates instance
+	 */
+	public final static CommitComparator init(final RevWalk walk,
+			final IOHandler io, final CommitGraph graph) {
+		return new CommitComparator(walk, io, graph);
 	}
 
 	/**
@@ -137,8 +169,9 @@ public final class CommitComparator implements Comparator<RevCommit> {
 		this.chp = null;
 	}
 
-	private CommitComparator(final RevWalk walk, final IOHandler io) {
-		this.chp = new CommitHistoryParser(walk, io);
+	private CommitComparator(final RevWalk walk, final IOHandler io,
+			final CommitGraph graph) {
+		this.chp = new CommitHistoryParser(walk, io, graph);
 	}
 
 	/**
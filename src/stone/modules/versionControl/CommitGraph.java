@@ -0,0 +1,321 @@
+package stone.modules.versionControl;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.TreeSet;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+import stone.util.AtomicFileWriter;
+import stone.util.Debug;
+import stone.util.Path;
+
+/**
+ * Ids, parents and commit times of all commits of a repository, stored in
+ * primitive arrays and persisted in a file. Commits are added by
+ * {@link #update(RevWalk, AnyObjectId...)} after each fetch, so searching the
+ * history needs to parse no commit.
+ *
+ * @author Nelphindal
+ */
+public final class CommitGraph {
+
+	private final static int MAGIC = 0x43475201;
+
+	/** number of ints holding one id */
+	private final static int ID_LENGTH = 5;
+
+	private final File file;
+
+	private final Comparator<Integer> byTime = new Comparator<Integer>() {
+
+		/**
+		 * Compares like {@link CommitComparator}, by commit time and if equal
+		 * by id.
+		 */
+		@Override
+		public final int compare(final Integer o1, final Integer o2) {
+			final int[] t = CommitGraph.this.times;
+			final int[] id = CommitGraph.this.ids;
+			final int delta = t[o1] - t[o2];
+			if (delta != 0) {
+				return delta;
+			}
+			for (int i = 0; i < ID_LENGTH; ++i) {
+				final int c = Integer.compareUnsigned(id[(o1 * ID_LENGTH) + i],
+						id[(o2 * ID_LENGTH) + i]);
+				if (c != 0) {
+					return c;
+				}
+			}
+			return 0;
+		}
+	};
+
+	private int[] ids = new int[ID_LENGTH * 0x100];
+	private int[] times = new int[0x100];
+	/** the parents of commit i start at parents[parentOffsets[i]] */
+	private int[] parentOffsets = new int[0x101];
+	private int[] parents = new int[0x100];
+	/** open addressing, index of the commit + 1 */
+	private int[] table = new int[0x200];
+	private int size;
+	private boolean changed;
+
+	/**
+	 * Creates a new graph and reads given file if it exists.
+	 *
+	 * @param file
+	 *            file to persist the graph in
+	 */
+	public CommitGraph(final Path file) {
+		this.file = file.toFile();
+		if (!this.file.exists()) {
+			return;
+		}
+		try (final DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(this.file)))) {
+			read(in);
+		} catch (final IOException e) {
+			Debug.print("Failed to read %s: %s\n", this.file, e.getMessage());
+			this.size = 0;
+			this.parentOffsets = new int[0x101];
+			this.table = new int[0x200];
+		}
+	}
+
+	/**
+	 * Writes this graph if any commit has been added since it has been read.
+	 */
+	public final void store() {
+		if (!this.changed) {
+			return;
+		}
+		this.changed = !new AtomicFileWriter(false) {
+
+			@Override
+			protected final void write(final DataOutputStream out)
+					throws IOException {
+				CommitGraph.this.write(out);
+			}
+		}.writeTo(this.file);
+	}
+
+	/**
+	 * Adds given commits and all their ancestors not contained yet. Parents
+	 * are added before their children.
+	 *
+	 * @param walk
+	 *            walk to parse the new commits with
+	 * @param heads
+	 *            commits to add
+	 * @return <i>true</i> if any commit has been added
+	 * @throws IOException
+	 *             if a commit can not be parsed
+	 */
+	public final boolean update(final RevWalk walk, final AnyObjectId... heads)
+			throws IOException {
+		final int sizeBefore = this.size;
+		final ArrayDeque<RevCommit> stack = new ArrayDeque<>();
+		for (final AnyObjectId head : heads) {
+			if (indexOf(head) < 0) {
+				stack.push(walk.parseCommit(head));
+			}
+		}
+		while (!stack.isEmpty()) {
+			final RevCommit c = stack.peek();
+			if (indexOf(c) >= 0) {
+				// reached by another child before
+				stack.pop();
+				continue;
+			}
+			boolean parentsAdded = true;
+			for (final RevCommit parent : c.getParents()) {
+				if (indexOf(parent) < 0) {
+					parentsAdded = false;
+					stack.push(walk.parseCommit(parent));
+				}
+			}
+			if (parentsAdded) {
+				stack.pop();
+				add(c);
+			}
+		}
+		if (this.size == sizeBefore) {
+			return false;
+		}
+		this.changed = true;
+		return true;
+	}
+
+	/**
+	 * @param i
+	 *            index of a commit
+	 * @return the id of the commit at index <i>i</i>
+	 */
+	final ObjectId getId(int i) {
+		return ObjectId.fromRaw(this.ids, i * ID_LENGTH);
+	}
+
+	/**
+	 * Searches the latest commit in the history of both given commits the same
+	 * way {@link CommitComparator#getParent(RevCommit, RevCommit)} does.
+	 *
+	 * @param local
+	 *            index of one commit
+	 * @param remote
+	 *            index of another commit
+	 * @return the index of the found commit, or -1 if there is none
+	 */
+	final int getParent(int local, int remote) {
+		final TreeSet<Integer> localList = new TreeSet<>(this.byTime);
+		final TreeSet<Integer> remoteList = new TreeSet<>(this.byTime);
+		int localCommit = local;
+		int remoteCommit = remote;
+		while (true) {
+			final int localTime = this.times[localCommit];
+			final int remoteTime = this.times[remoteCommit];
+			if ((localTime == remoteTime) && (localCommit == remoteCommit)) {
+				return localCommit;
+			}
+			if (localTime > remoteTime) {
+				addParents(localCommit, localList);
+				if (localList.isEmpty()) {
+					return -1;
+				}
+				localCommit = localList.pollLast();
+			} else {
+				addParents(remoteCommit, remoteList);
+				if (remoteList.isEmpty()) {
+					return -1;
+				}
+				remoteCommit = remoteList.pollLast();
+			}
+		}
+	}
+
+	/**
+	 * @param id
+	 *            id of a commit
+	 * @return the index of given commit, or -1 if it is not contained
+	 */
+	final int indexOf(final AnyObjectId id) {
+		final int mask = this.table.length - 1;
+		for (int slot = id.hashCode() & mask;; slot = (slot + 1) & mask) {
+			final int entry = this.table[slot];
+			if (entry == 0) {
+				return -1;
+			}
+			if (id.compareTo(this.ids, (entry - 1) * ID_LENGTH) == 0) {
+				return entry - 1;
+			}
+		}
+	}
+
+	private final void add(final RevCommit c) {
+		final RevCommit[] commitParents = c.getParents();
+		final int parentsSize = this.parentOffsets[this.size];
+		if (this.size == this.times.length) {
+			final int capacity = this.size << 1;
+			this.ids = Arrays.copyOf(this.ids, capacity * ID_LENGTH);
+			this.times = Arrays.copyOf(this.times, capacity);
+			this.parentOffsets = Arrays.copyOf(this.parentOffsets,
+					capacity + 1);
+		}
+		if ((parentsSize + commitParents.length) > this.parents.length) {
+			this.parents = Arrays.copyOf(this.parents, Math.max(
+					this.parents.length << 1, parentsSize
+							+ commitParents.length));
+		}
+		c.copyRawTo(this.ids, this.size * ID_LENGTH);
+		this.times[this.size] = c.getCommitTime();
+		for (int i = 0; i < commitParents.length; ++i) {
+			this.parents[parentsSize + i] = indexOf(commitParents[i]);
+		}
+		this.parentOffsets[this.size + 1] = parentsSize + commitParents.length;
+		++this.size;
+		if ((this.size << 1) > this.table.length) {
+			this.table = new int[this.table.length << 1];
+			for (int i = 0; i < this.size; ++i) {
+				insert(i);
+			}
+		} else {
+			insert(this.size - 1);
+		}
+	}
+
+	private final void addParents(int commit, final TreeSet<Integer> list) {
+		final int end = this.parentOffsets[commit + 1];
+		for (int i = this.parentOffsets[commit]; i < end; ++i) {
+			list.add(this.parents[i]);
+		}
+	}
+
+	private final void insert(int i) {
+		final int mask = this.table.length - 1;
+		// the hash code of an id is its second int
+		int slot = this.ids[(i * ID_LENGTH) + 1] & mask;
+		while (this.table[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		this.table[slot] = i + 1;
+	}
+
+	private final void read(final DataInputStream in) throws IOException {
+		if (in.readInt() != MAGIC) {
+			throw new IOException("Invalid header");
+		}
+		final int n = in.readInt();
+		final int parentsSize = in.readInt();
+		final int capacity = Math.max(0x100, Integer.highestOneBit(n) << 1);
+		this.ids = new int[capacity * ID_LENGTH];
+		this.times = new int[capacity];
+		this.parentOffsets = new int[capacity + 1];
+		this.parents = new int[Math.max(0x100, parentsSize)];
+		for (int i = 0; i < (n * ID_LENGTH); ++i) {
+			this.ids[i] = in.readInt();
+		}
+		for (int i = 0; i < n; ++i) {
+			this.times[i] = in.readInt();
+		}
+		for (int i = 1; i <= n; ++i) {
+			this.parentOffsets[i] = in.readInt();
+		}
+		for (int i = 0; i < parentsSize; ++i) {
+			this.parents[i] = in.readInt();
+		}
+		this.size = n;
+		this.table = new int[capacity << 1];
+		for (int i = 0; i < n; ++i) {
+			insert(i);
+		}
+	}
+
+	private final void write(final DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(this.size);
+		out.writeInt(this.parentOffsets[this.size]);
+		for (int i = 0; i < (this.size * ID_LENGTH); ++i) {
+			out.writeInt(this.ids[i]);
+		}
+		for (int i = 0; i < this.size; ++i) {
+			out.writeInt(this.times[i]);
+		}
+		for (int i = 1; i <= this.size; ++i) {
+			out.writeInt(this.parentOffsets[i]);
+		}
+		for (int i = 0; i < this.parentOffsets[this.size]; ++i) {
+			out.writeInt(this.parents[i]);
+		}
+	}
+}
@@ -514,6 +514,8 @@ public class StagePlugin extends GUIPlugin {
 						gitSession.reset().setRef("HEAD").addPath(f.s).call();
 					}
 				}
+				// all files to encrypt are encrypted at once
+				final Map<String, String> encrypted = new HashMap<>();
 				for (final ChangedFile f : this.stagedFiles.values()) {
 					if (this.untracked.remove(f.s) || this.missing.remove(f.s)
 							|| this.modified.remove(f.s)) {
@@ -525,19 +527,22 @@ public class StagePlugin extends GUIPlugin {
 							gitSession.rm().addFilepattern(f.s).call();
 						} else {
 							if (f.encrypt) {
-								final String encrypted = vc.encrypt(f.s, null,
-										true);
-								if (encrypted == null) {
-									return false;
-								}
-								gitSession.add().addFilepattern(encrypted)
-										.call();
+								encrypted.put(f.s,
+										VersionControl.encryptedPath(f.s));
 							} else {
 								gitSession.add().addFilepattern(f.s).call();
 							}
 						}
 					}
 				}
+				if (!encrypted.isEmpty()) {
+					if (!vc.encrypt(encrypted, true)) {
+						return false;
+					}
+					for (final String target : encrypted.values()) {
+						gitSession.add().addFilepattern(target).call();
+					}
+				}
 			}
 			if (this.commit && this.stagedFiles.isEmpty()) {
 				Debug.print("\nStage clean.\nNo files to commit\n\n");
@@ -0,0 +1,107 @@
+package stone.util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes a file atomically. The content is written to a temporary file in the
+ * same directory, which replaces the file afterwards. A failed write leaves
+ * the previous content untouched.
+ *
+ * @author Nelphindal
+ */
+public abstract class AtomicFileWriter {
+
+	private final static char[] HEX = "0123456789abcdef".toCharArray();
+
+	/**
+	 * Creates a name for a file holding data of given key. The name is the
+	 * SHA-1 digest of the key in hex, so distinct keys do not share a file.
+	 *
+	 * @param key
+	 *            the key, e.g. an absolute path
+	 * @return the name
+	 */
+	public final static String fileName(final String key) {
+		final byte[] digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1").digest(
+					key.getBytes(FileSystem.UTF8));
+		} catch (final NoSuchAlgorithmException e) {
+			// every implementation of the JRE has to support SHA-1
+			throw new IllegalStateException(e);
+		}
+		final char[] name = new char[2 * digest.length];
+		for (int i = 0; i < digest.length; ++i) {
+			name[2 * i] = HEX[(0xf0 & digest[i]) >> 4];
+			name[(2 * i) + 1] = HEX[0x0f & digest[i]];
+		}
+		return new String(name);
+	}
+
+	private final boolean compress;
+
+	/**
+	 * @param compress
+	 *            <i>true</i> to compress the written content with gzip
+	 */
+	@SuppressWarnings("hiding")
+	protected AtomicFileWriter(boolean compress) {
+		this.compress = compress;
+	}
+
+	/**
+	 * Writes given file. Missing parent directories are created. Failures are
+	 * printed with {@link Debug}.
+	 *
+	 * @param file
+	 *            the file to write
+	 * @return <i>true</i> if the file has been written
+	 */
+	public final boolean writeTo(final File file) {
+		final File dir = file.getParentFile();
+		if (!dir.exists() && !dir.mkdirs()) {
+			return false;
+		}
+		File tmp = null;
+		try {
+			// the prefix has to be at least 3 characters long
+			tmp = File.createTempFile(file.getName() + ".new", null, dir);
+			try (final OutputStream fileOut = new FileOutputStream(tmp);
+					final DataOutputStream out = new DataOutputStream(
+							new BufferedOutputStream(
+									this.compress ? new GZIPOutputStream(
+											fileOut) : fileOut))) {
+				write(out);
+			}
+			Files.move(tmp.toPath(), file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+			return true;
+		} catch (final IOException e) {
+			Debug.print("Failed to write %s: %s\n", file, e.getMessage());
+			if (tmp != null) {
+				tmp.delete();
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Writes the content of the file.
+	 *
+	 * @param out
+	 *            stream to the temporary file
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	protected abstract void write(DataOutputStream out) throws IOException;
+}
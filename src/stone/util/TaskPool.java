@@ -1,27 +1,424 @@
 package stone.util;
 
-import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntConsumer;
 
 import stone.MasterThread;
 import stone.StartupContainer;
 
 /**
- * Simple thread management.
- * 
+ * Simple thread management. Each worker has its own queues, one for each
+ * {@link Priority}. A worker takes the tasks from its own queues first and
+ * from the queues of the other workers if its own are empty. Only one idle
+ * worker is woken up for each added task.
+ *
  * @author Nelphindal
  */
 public class TaskPool {
 
-	private final MasterThread master;
+	/**
+	 * Priority of a task. Tasks with higher priority are executed first.
+	 *
+	 * @author Nelphindal
+	 */
+	public enum Priority {
+		/** executed before any other task */
+		HIGH,
+		/** default priority */
+		NORMAL,
+		/** executed if no other tasks are waiting */
+		LOW;
+	}
+
+	/**
+	 * A set of tasks of the pool which can be awaited independently of all
+	 * other tasks.
+	 *
+	 * @author Nelphindal
+	 */
+	public final class TaskGroup {
+
+		private final boolean io;
+		private int pending = 0;
+
+		TaskGroup(@SuppressWarnings("hiding") boolean io) {
+			this.io = io;
+		}
+
+		/**
+		 * Adds a new task to this group to be executed.
+		 *
+		 * @param task
+		 *            Task to run
+		 */
+		public final void addTask(final Runnable task) {
+			addTask(task, Priority.NORMAL);
+		}
+
+		/**
+		 * Adds a new task to this group to be executed.
+		 *
+		 * @param task
+		 *            Task to run
+		 * @param priority
+		 *            the priority of <i>task</i>
+		 */
+		public final void addTask(final Runnable task, final Priority priority) {
+			schedule(new Task<>(task, this, priority, true), 1);
+		}
+
+		/**
+		 * Adds one task to this group to be executed by all available
+		 * WorkerThreads.
+		 *
+		 * @param task
+		 *            Task to run
+		 * @see #addTaskForAll(Runnable, int)
+		 */
+		public final void addTaskForAll(final Runnable task) {
+			addTaskForAll(task, 100);
+		}
+
+		/**
+		 * Adds one task to this group to be executed by set percent of
+		 * available WorkerThreads for the pool, but at least by one. Groups
+		 * created by {@link TaskPool#createIOGroup()} accept more than 100
+		 * percent.
+		 *
+		 * @param task
+		 *            Task to run
+		 * @param percent
+		 *            percent of threads in pool to run <i>task</i>
+		 */
+		public final void addTaskForAll(final Runnable task, int percent) {
+			final int workersCount = TaskPool.this.workers.length;
+			final int n = Math.max(1, ((workersCount * Math.max(0,
+					this.io ? percent : Math.min(100, percent))) + 50) / 100);
+			for (int i = 0; i < n; ++i) {
+				schedule(new Task<>(task, this, Priority.NORMAL, true), n);
+			}
+		}
+
+		/**
+		 * Waits until all tasks added to this group have been executed or
+		 * have been cancelled before they started. The master thread has to
+		 * be checked if it was not interrupted while waiting.
+		 */
+		public final synchronized void await() {
+			while (this.pending > 0) {
+				try {
+					wait();
+				} catch (final InterruptedException e) {
+					TaskPool.this.master.interrupt();
+					return;
+				}
+			}
+		}
+
+		/**
+		 * Runs <i>action</i> for each index from 0 to <i>n</i> - 1. The
+		 * indices are claimed one after another by the calling thread and by
+		 * up to <i>parallelism</i> - 1 tasks of this group, so a call from a
+		 * worker or without running workers does not block. Tasks not started
+		 * when the calling thread runs out of indices are cancelled. An
+		 * exception thrown by <i>action</i> stops claiming further indices and
+		 * is rethrown after all started tasks returned.
+		 *
+		 * @param n
+		 *            number of indices
+		 * @param parallelism
+		 *            maximum number of threads running <i>action</i>
+		 * @param action
+		 *            action to run for each index
+		 * @return <i>false</i> if the calling thread has been interrupted
+		 *         while waiting for the started tasks
+		 */
+		public final boolean forEach(final int n, int parallelism,
+				final IntConsumer action) {
+			final AtomicInteger next = new AtomicInteger();
+			final Runnable loop = new Runnable() {
+
+				@Override
+				public final void run() {
+					try {
+						int i;
+						while ((i = next.getAndIncrement()) < n) {
+							action.accept(i);
+						}
+					} catch (final RuntimeException | Error e) {
+						next.set(n);
+						throw e;
+					}
+				}
+			};
+			final List<Task<?>> tasks = new ArrayList<>();
+			for (int i = 1; i < Math.min(n, parallelism); ++i) {
+				final Task<?> t = new Task<>(loop, this, Priority.NORMAL, false);
+				schedule(t, 1);
+				tasks.add(t);
+			}
+			Throwable failed = null;
+			try {
+				loop.run();
+			} catch (final RuntimeException | Error e) {
+				failed = e;
+			}
+			for (final Task<?> t : tasks) {
+				t.skip();
+			}
+			for (final Task<?> t : tasks) {
+				if (t.isCancelled()) {
+					continue;
+				}
+				try {
+					t.get();
+				} catch (final InterruptedException e) {
+					TaskPool.this.master.interrupt();
+					return false;
+				} catch (final ExecutionException e) {
+					if (failed == null) {
+						failed = e.getCause();
+					}
+				}
+			}
+			if (failed instanceof Error) {
+				throw (Error) failed;
+			}
+			if (failed != null) {
+				throw (RuntimeException) failed;
+			}
+			return true;
+		}
+
+		/**
+		 * Adds a new task to this group to be executed.
+		 *
+		 * @param task
+		 *            Task to run
+		 * @return a future to wait for and to get the result of <i>task</i>
+		 */
+		public final <T> Future<T> submit(final Callable<T> task) {
+			final Task<T> t = new Task<>(task, this, Priority.NORMAL);
+			schedule(t, 1);
+			return t;
+		}
+
+		/**
+		 * Adds a new task to this group to be executed.
+		 *
+		 * @param task
+		 *            Task to run
+		 * @return a future to wait for <i>task</i>
+		 */
+		public final Future<?> submit(final Runnable task) {
+			final Task<?> t = new Task<>(task, this, Priority.NORMAL, false);
+			schedule(t, 1);
+			return t;
+		}
+
+		final synchronized void taskAdded() {
+			++this.pending;
+		}
+
+		final synchronized void taskDone() {
+			if (--this.pending == 0) {
+				notifyAll();
+			}
+		}
+	}
+
+	private final class Task<T> extends FutureTask<T> {
+
+		private final TaskGroup group;
+		private final Priority priority;
+		/** report exceptions, nobody waits for the result */
+		private final boolean report;
+		/** set by the first of running or cancelling before running */
+		private final AtomicBoolean claimed = new AtomicBoolean();
 
-	private final ArrayDeque<Runnable> taskPool = new ArrayDeque<>();
+		@SuppressWarnings("hiding")
+		Task(final Callable<T> task, final TaskGroup group,
+				final Priority priority) {
+			super(task);
+			this.group = group;
+			this.priority = priority;
+			this.report = false;
+		}
+
+		@SuppressWarnings("hiding")
+		Task(final Runnable task, final TaskGroup group,
+				final Priority priority, boolean report) {
+			super(task, null);
+			this.group = group;
+			this.priority = priority;
+			this.report = report;
+		}
+
+		/**
+		 * Cancels this task. A task cancelled before it started is done at
+		 * once, a running task is done when it returns.
+		 */
+		@Override
+		public final boolean cancel(boolean mayInterruptIfRunning) {
+			return skip() || super.cancel(mayInterruptIfRunning);
+		}
+
+		@Override
+		public final void run() {
+			if (!this.claimed.compareAndSet(false, true)) {
+				// cancelled before it started
+				return;
+			}
+			try {
+				super.run();
+			} finally {
+				taskDone();
+			}
+		}
+
+		@Override
+		protected final void setException(final Throwable e) {
+			if (this.report) {
+				Throwable tr = e;
+				while (tr.getCause() != null) {
+					tr = tr.getCause();
+				}
+				if (!InterruptedException.class
+						.isAssignableFrom(tr.getClass())) {
+					e.printStackTrace();
+				}
+			}
+			super.setException(e);
+		}
+
+		/**
+		 * Cancels this task if it has not been started yet.
+		 *
+		 * @return <i>true</i> if this task will not run
+		 */
+		final boolean skip() {
+			if (!this.claimed.compareAndSet(false, true)) {
+				return false;
+			}
+			super.cancel(false);
+			taskDone();
+			return true;
+		}
+
+		private final void taskDone() {
+			this.group.taskDone();
+			if (this.group != TaskPool.this.all) {
+				TaskPool.this.all.taskDone();
+			}
+		}
+	}
+
+	private final class Worker implements Runnable {
+
+		private final ConcurrentLinkedDeque<Task<?>>[] queues;
+		private volatile Thread thread;
+
+		@SuppressWarnings({ "rawtypes", "unchecked" })
+		Worker() {
+			this.queues = new ConcurrentLinkedDeque[Priority.values().length];
+			for (int i = 0; i < this.queues.length; ++i) {
+				this.queues[i] = new ConcurrentLinkedDeque<>();
+			}
+		}
+
+		@Override
+		public final void run() {
+			this.thread = Thread.currentThread();
+			while (true) {
+				final Task<?> task = take();
+				if (task == null) {
+					return;
+				}
+				execute(task);
+				if (TaskPool.this.master.isInterrupted()) {
+					return;
+				}
+			}
+		}
+
+		private final Task<?> poll() {
+			for (int p = 0; p < this.queues.length; ++p) {
+				Task<?> task = this.queues[p].pollFirst();
+				if (task != null) {
+					return task;
+				}
+				for (final Worker other : TaskPool.this.workers) {
+					if (other != this) {
+						task = other.queues[p].pollFirst();
+						if (task != null) {
+							return task;
+						}
+					}
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * Waits as long no task is queued, and returns the next task.
+		 *
+		 * @return the next task or <i>null</i> if the pool has been closed
+		 *         while waiting
+		 */
+		private final Task<?> take() {
+			while (true) {
+				Task<?> task = poll();
+				if (task != null) {
+					return task;
+				}
+				if (TaskPool.this.closed) {
+					return null;
+				}
+				TaskPool.this.idle.add(this);
+				// re-check to not miss a task added before this worker
+				// became idle
+				task = poll();
+				if ((task != null) || TaskPool.this.closed) {
+					TaskPool.this.idle.remove(this);
+					return task;
+				}
+				LockSupport.park(TaskPool.this);
+				TaskPool.this.idle.remove(this);
+				if (Thread.interrupted()) {
+					TaskPool.this.master.interrupt();
+					return null;
+				}
+			}
+		}
+	}
+
+	private final MasterThread master;
 
 	private final static int NUM_CPUS = Runtime.getRuntime()
 			.availableProcessors();
 
-	private boolean closed = false;
+	private final Worker[] workers;
+
+	private final ConcurrentLinkedDeque<Worker> idle = new ConcurrentLinkedDeque<>();
+
+	private final AtomicInteger nextWorker = new AtomicInteger();
+
+	private final AtomicInteger ioThreads = new AtomicInteger();
+
+	private final TaskGroup all = new TaskGroup(false);
+
+	private volatile boolean closed = false;
 
 	private int runningTasks = 0;
 
@@ -29,80 +426,93 @@ public class TaskPool {
 
 	/**
 	 * Creates a new task Pool
-	 * 
+	 *
 	 * @param os
 	 *            the StartupContainer for initialization
 	 */
 	public TaskPool(final StartupContainer os) {
 		this.master = new MasterThread(os, this);
+		this.workers = new Worker[Math.max(NUM_CPUS, 2)];
+		for (int i = 0; i < this.workers.length; ++i) {
+			this.workers[i] = new Worker();
+		}
 		Debug.print("%d available CPUs\n", NUM_CPUS);
 	}
 
 	/**
 	 * Adds a new task to the pool to be executed.
-	 * 
+	 *
 	 * @param task
 	 *            Task to run
 	 */
 	public final void addTask(final Runnable task) {
-		synchronized (this.taskPool) {
-			this.taskPool.add(task);
-			this.taskPool.notify();
-		}
+		this.all.addTask(task);
+	}
+
+	/**
+	 * Adds a new task to the pool to be executed.
+	 *
+	 * @param task
+	 *            Task to run
+	 * @param priority
+	 *            the priority of <i>task</i>
+	 */
+	public final void addTask(final Runnable task, final Priority priority) {
+		this.all.addTask(task, priority);
 	}
 
 	/**
 	 * Adds one task to the pool to be executed. Each task will be executed by
-	 * all available WorkerThreads for the pool. The next task will be executed
-	 * after the previous task has been completed with all threads.
-	 * 
+	 * all available WorkerThreads for the pool.
+	 *
 	 * @param task
 	 *            Task to run
 	 */
 	public final void addTaskForAll(final Runnable task) {
-		addTaskForAll(task, 100);
+		this.all.addTaskForAll(task);
 	}
 
 	/**
 	 * Adds one task to the pool to be executed. Each task will be executed by
-	 * set percent of available WorkerThreads for the pool. The next task will
-	 * be executed after the previous task has been completed with all threads.
-	 * 
+	 * set percent of available WorkerThreads for the pool, but at least by
+	 * one.
+	 *
 	 * @param task
 	 *            Task to run
 	 * @param percent
 	 *            percent of threads in pool to run <i>task</i>
 	 */
 	public final void addTaskForAll(final Runnable task, int percent) {
-		final int n = NUM_CPUS * Math.max(1, Math.min(100, percent) / 100);
-		synchronized (this.taskPool) {
-			for (int i = 0; i < n; i++) {
-				this.taskPool.add(task);
-			}
-			this.taskPool.notifyAll();
-		}
+		this.all.addTaskForAll(task, percent);
 	}
 
 	/**
 	 * Closes this pool. All waiting tasks will be woken up.
+	 *
+	 * @return <i>false</i> if called by a thread executing a task of this
+	 *         pool, <i>true</i> after all tasks terminated
 	 */
 	public final boolean close() {
-		synchronized (this.taskPool) {
+		synchronized (this.runningTaskList) {
 			if (this.closed) {
 				return true;
 			}
 			this.closed = true;
-			this.taskPool.notifyAll();
-			synchronized (this.runningTaskList) {
-				for (final Thread t : this.runningTaskList) {
-					t.interrupt();
+			for (final Worker w : this.workers) {
+				final Thread t = w.thread;
+				if (t != null) {
+					LockSupport.unpark(t);
 				}
 			}
-			if (runningTaskList.contains(Thread.currentThread()))
+			for (final Thread t : this.runningTaskList) {
+				t.interrupt();
+			}
+			if (this.runningTaskList.contains(Thread.currentThread())) {
 				return false;
+			}
 			while (this.runningTasks > 0) {
 				try {
-					this.taskPool.wait();
+					this.runningTaskList.wait();
 				} catch (final InterruptedException e) {
 					this.master.interrupt();
 				}
@@ -111,6 +521,27 @@ public class TaskPool {
 		return true;
 	}
 
+	/**
+	 * Creates a new group of tasks for this pool. Tasks added to the group are
+	 * executed by the WorkerThreads of this pool.
+	 *
+	 * @return the created group
+	 */
+	public final TaskGroup createGroup() {
+		return new TaskGroup(false);
+	}
+
+	/**
+	 * Creates a new group of tasks for tasks mainly waiting for I/O. Each task
+	 * added to the group is executed by its own thread, which terminates
+	 * after the task is done. The WorkerThreads of this pool are not used.
+	 *
+	 * @return the created group
+	 */
+	public final TaskGroup createIOGroup() {
+		return new TaskGroup(true);
+	}
+
 	/**
 	 * @return The thread which is interrupted if any operation catches an
 	 *         InterruptedException
@@ -121,29 +552,39 @@ public class TaskPool {
 
 	/**
 	 * Forks and starts the {@link MasterThread}.
-	 * 
+	 *
 	 * @return created master thread
 	 */
 	public final Runnable runMaster() {
 		this.master.setName("master");
 		this.master.start();
-		final Runnable workerRun = new Runnable() {
-
-			@Override
-			public void run() {
-				while (true) {
-					if (!runTask()) {
-						return;
-					}
-				}
-			}
-		};
-		final int nMax = Math.max(NUM_CPUS, 2);
-		for (int n = 0; ++n < nMax;) {
-			final Thread t = new Thread(workerRun, "Worker-" + n);
+		for (int n = 1; n < this.workers.length; ++n) {
+			final Thread t = new Thread(this.workers[n], "Worker-" + n);
 			t.start();
 		}
-		return workerRun;
+		return this.workers[0];
+	}
+
+	/**
+	 * Adds a new task to the pool to be executed.
+	 *
+	 * @param task
+	 *            Task to run
+	 * @return a future to wait for and to get the result of <i>task</i>
+	 */
+	public final <T> Future<T> submit(final Callable<T> task) {
+		return this.all.submit(task);
+	}
+
+	/**
+	 * Adds a new task to the pool to be executed.
+	 *
+	 * @param task
+	 *            Task to run
+	 * @return a future to wait for <i>task</i>
+	 */
+	public final Future<?> submit(final Runnable task) {
+		return this.all.submit(task);
 	}
 
 	/**
@@ -152,61 +593,73 @@ public class TaskPool {
 	 * waiting.
 	 */
 	public final void waitForTasks() {
-		synchronized (this.taskPool) {
-			while ((this.runningTasks > 0) || !this.taskPool.isEmpty()) {
-				try {
-					this.taskPool.wait();
-				} catch (final InterruptedException e) {
-					this.master.interrupt();
+		this.all.await();
+	}
+
+	private final Worker currentWorker() {
+		final Thread current = Thread.currentThread();
+		for (final Worker w : this.workers) {
+			if (w.thread == current) {
+				return w;
+			}
+		}
+		return null;
+	}
+
+	private final void execute(final Task<?> task) {
+		final Thread current = Thread.currentThread();
+		synchronized (this.runningTaskList) {
+			++this.runningTasks;
+			this.runningTaskList.add(current);
+		}
+		try {
+			task.run();
+		} finally {
+			synchronized (this.runningTaskList) {
+				this.runningTaskList.remove(current);
+				if (--this.runningTasks == 0) {
+					this.runningTaskList.notifyAll();
 				}
 			}
 		}
 	}
 
 	/**
-	 * Waits as long the task-queue of this pool is empty, and executes the next
-	 * task.
-	 * 
-	 * @return <i>true</i> if a task has been executed, <i>false</i> if the pool
-	 *         has been closed while waiting
+	 * Queues <i>task</i>. Copies of a task added by
+	 * {@link TaskGroup#addTaskForAll(Runnable, int)} are spread over
+	 * <i>copies</i> different workers.
 	 */
-	final boolean runTask() {
-		final Runnable t;
-		synchronized (this.taskPool) {
-			while (this.taskPool.isEmpty()) {
-				if (this.closed) {
-					return false;
-				}
-				try {
-					this.taskPool.wait();
-				} catch (final InterruptedException e) {
-					this.master.interrupt();
-					return false;
+	private final void schedule(final Task<?> task, int copies) {
+		task.group.taskAdded();
+		if (task.group != this.all) {
+			this.all.taskAdded();
+		}
+		if (task.group.io) {
+			final Thread t = new Thread(new Runnable() {
+
+				@Override
+				public final void run() {
+					execute(task);
 				}
-			}
-			++this.runningTasks;
-			t = this.taskPool.remove();
+			}, "IO-Worker-" + this.ioThreads.incrementAndGet());
+			t.start();
+			return;
 		}
-		synchronized (this.runningTaskList) {
-			this.runningTaskList.add(Thread.currentThread());
+		final Worker current = copies == 1 ? currentWorker() : null;
+		final Worker target;
+		if (current != null) {
+			target = current;
+		} else {
+			target = this.workers[(this.nextWorker.getAndIncrement() & Integer.MAX_VALUE)
+					% this.workers.length];
 		}
-		try {
-			t.run();
-		} catch (final Exception e) {
-			Throwable tr = e;
-			while (tr.getCause() != null) {
-				tr = tr.getCause();
-			}
-			if (!InterruptedException.class.isAssignableFrom(tr.getClass())) {
-				e.printStackTrace();
-			}
-		} finally {
-			synchronized (this.taskPool) {
-				this.taskPool.notifyAll();
-				--this.runningTasks;
-				this.runningTaskList.remove(Thread.currentThread());
+		target.queues[task.priority.ordinal()].addLast(task);
+		final Worker w = this.idle.poll();
+		if (w != null) {
+			final Thread t = w.thread;
+			if (t != null) {
+				LockSupport.unpark(t);
 			}
 		}
-		return !this.master.isInterrupted();
 	}
 }